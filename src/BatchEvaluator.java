@@ -0,0 +1,225 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates a file of newline separated expressions, writing the result of each line on its own
+ * line in the same order. The file is memory mapped and split into chunks on line boundaries,
+ * and the chunks are evaluated in parallel on a {@link ForkJoinPool}. Each line is read out of
+ * the mapped file into one buffer that the whole chunk reuses, and is looked up in the
+ * {@link ProgramCache} in place, so a line is only copied into a {@link String} the first time
+ * its expression is compiled. Only a bounded number of chunks are in memory at once no matter how
+ * large the file is.
+ * <p>The file is read one byte per character, which covers every character expressions use. A
+ * line that cannot be evaluated is written as the message of its error, whatever the error is, so
+ * one bad line never stops the rest of the file; a blank line stays blank.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#evaluate()
+ */
+public abstract class BatchEvaluator {
+    // -- Attributes -- \\
+    private static final int CHUNK = 4 << 20; //The number of bytes each task evaluates, give or take a line
+    private static final int WINDOW = 4; //The number of chunks per thread that can be queued or unwritten at once
+    private static final int CACHE_SIZE = 4096;
+
+    /** A line of a mapped chunk, read in place as a {@link CharSequence} */
+    private static final class Line implements CharSequence {
+        private final ByteBuffer BUFFER;
+        private final int OFFSET;
+        private final int LENGTH;
+
+        Line(ByteBuffer buffer, int offset, int length) {
+            BUFFER = buffer;
+            OFFSET = offset;
+            LENGTH = length;
+        }
+
+        @Override
+        public int length() {
+            return LENGTH;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= LENGTH) {throw new StringIndexOutOfBoundsException(index);}
+            return (char)(BUFFER.get(OFFSET + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > LENGTH || start > end) {throw new StringIndexOutOfBoundsException(String.format("begin %d, end %d, length %d", start, end, LENGTH));}
+            return new Line(BUFFER, OFFSET + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            final byte[] BYTES = new byte[LENGTH];
+            BUFFER.get(OFFSET, BYTES);
+            return new String(BYTES, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    // -- Methods -- \\
+    /**
+     * Finds the index after the end of the line that contains {@code position}
+     * @param channel the file being split
+     * @param position an index in the file
+     * @return the index after the next newline, or the size of the file if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long lineEnd(FileChannel channel, long position) throws IOException {
+        final long SIZE = channel.size();
+        final ByteBuffer BYTES = ByteBuffer.allocate(4096);
+
+        while (position < SIZE) {
+            BYTES.clear();
+            int read = channel.read(BYTES, position);
+            if (read <= 0) {break;}
+
+            for (int index = 0; index < read; index++) {
+                if (BYTES.get(index) == '\n') {return position + index + 1;}
+            }
+            position += read;
+        }
+        return SIZE;
+    }
+
+    /**
+     * Splits the file into chunks of about {@code CHUNK} bytes that start and end on line boundaries
+     * @return the start of each chunk followed by the size of the file
+     */
+    private static List<Long> split(FileChannel channel) throws IOException {
+        final long SIZE = channel.size();
+        final List<Long> BOUNDARIES = new ArrayList<>();
+        long position = 0;
+
+        while (position < SIZE) {
+            BOUNDARIES.add(position);
+            position = (SIZE - position <= CHUNK) ? SIZE : lineEnd(channel, position + CHUNK - 1);
+        }
+        BOUNDARIES.add(SIZE);
+        return BOUNDARIES;
+    }
+
+    /**
+     * Evaluates every line of a mapped chunk
+     * @param chunk the mapped chunk, which ends at the end of a line or of the file
+     * @param cache the cache of compiled programs shared by every chunk
+     * @return the results of the lines, encoded in UTF-8
+     */
+    private static byte[] evaluate(MappedByteBuffer chunk, ProgramCache cache) {
+        final StringBuilder RESULTS = new StringBuilder(chunk.limit()/2);
+        final Expression EXPRESSION = new Expression();
+        final int LIMIT = chunk.limit();
+        int start = 0;
+
+        while (start < LIMIT) {
+            int end = start;
+            while (end < LIMIT && chunk.get(end) != '\n') {end++;}
+            final int NEXT = end + 1;
+            if (end > start && chunk.get(end-1) == '\r') {end--;}
+
+            EXPRESSION.clear();
+            EXPRESSION.add(new Line(chunk, start, end - start));
+            if (!isBlank(EXPRESSION)) { //malformed lines are common, so they are rejected without exceptions
+                RESULTS.append(evaluate(EXPRESSION, cache));
+            }
+            RESULTS.append('\n');
+
+            start = NEXT;
+        }
+        return RESULTS.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Evaluates one line, so an error it throws is written in its place instead of ending the batch
+     * @return the value of the line, or the message of its error
+     */
+    private static String evaluate(Expression expression, ProgramCache cache) {
+        try {
+            final Result RESULT = expression.tryEvaluate(cache, MathContext.DECIMAL128);
+            return RESULT.isValid() ? RESULT.value().toString() : RESULT.message();
+        } catch (RuntimeException e) {
+            return (e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName();
+        }
+    }
+
+    private static boolean isBlank(CharSequence seq) {
+        for (int index = 0; index < seq.length(); index++) {
+            if (!Character.isWhitespace(seq.charAt(index))) {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates every line of {@code input} and writes the results to {@code output}
+     * @param input the file of newline separated expressions
+     * @param output where to write the result of each line, in the same order as the lines
+     * @param parallelism the number of threads to evaluate the file with
+     * @throws IOException if the file cannot be read or the results cannot be written
+     * @throws IllegalArgumentException if {@code parallelism} is less than {@code 1}
+     */
+    public static void evaluate(Path input, OutputStream output, int parallelism) throws IOException {
+        final ForkJoinPool POOL = new ForkJoinPool(parallelism);
+        final ProgramCache CACHE = new ProgramCache(CACHE_SIZE); //kept apart so a batch doesn't evict the shared cache
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            final List<Long> BOUNDARIES = split(channel);
+            final Deque<ForkJoinTask<byte[]>> PENDING = new ArrayDeque<>();
+            int next = 0;
+
+            while (next < BOUNDARIES.size()-1 || !PENDING.isEmpty()) {
+                while (next < BOUNDARIES.size()-1 && PENDING.size() < parallelism*WINDOW) { //keep the pool busy without mapping the whole file at once
+                    final long START = BOUNDARIES.get(next);
+                    final MappedByteBuffer CHUNK = channel.map(FileChannel.MapMode.READ_ONLY, START, BOUNDARIES.get(next+1) - START);
+                    PENDING.add(POOL.submit(() -> evaluate(CHUNK, CACHE)));
+                    next++;
+                }
+                output.write(PENDING.poll().join()); //written in input order, whatever order the chunks finish in
+            }
+            output.flush();
+        } finally {
+            POOL.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates a file of expressions from the command line
+     * @param args the file of expressions, and optionally the file to write the results to instead of the console
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BatchEvaluator <expressions> [results]");
+            return;
+        }
+
+        final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length == 2) {
+                try (OutputStream output = Files.newOutputStream(Paths.get(args[1]))) {
+                    evaluate(Paths.get(args[0]), output, PARALLELISM);
+                }
+            } else { //only flushed, since closing it would close the console for the rest of the process
+                evaluate(Paths.get(args[0]), new BufferedOutputStream(System.out), PARALLELISM);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
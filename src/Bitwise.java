@@ -0,0 +1,174 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Applies the bitwise operators {@code &} and {@code |} and the bitwise functions {@code xor},
+ * {@code shl} and {@code shr} to integers. Numbers are treated as two's complement integers of
+ * unlimited width, as {@link BigInteger} treats them, so {@code -1} has every bit set. Shifting
+ * left by {@code n} multiplies by {@code 2^n}, and shifting right divides by {@code 2^n} rounding
+ * toward negative infinity; a negative shift goes the other way.
+ * <p>Integers that fit are operated on as {@code long}s, and only larger integers and the results
+ * of shifting left past 64 bits need a {@link BigInteger}. A value with a fractional part has no
+ * bits to operate on, so it is an error. So is an operand or a result of more than
+ * {@value #MAX_DIGITS} digits, whose bits would take longer to work out than they are worth; a
+ * shift left that is rounded anyway is computed as {@code x*2^n} to the precision it is rounded
+ * to instead, so it only fails past the range of a {@link BigDecimal}.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#OPERATIONS
+ * @see Expression#FUNCTIONS
+ */
+abstract class Bitwise {
+    // -- Attributes -- \\
+    static final int AND = 0, OR = 1, XOR = 2, SHIFT_LEFT = 3, SHIFT_RIGHT = 4;
+
+    static final int MAX_DIGITS = 100000; //The most digits of an integer that is converted to its bits
+    private static final long MAX_BITS = (long)Math.ceil(MAX_DIGITS / Math.log10(2)); //The bits of an integer of MAX_DIGITS digits
+    private static final int GUARD = 10; //The extra digits a power of 2 is kept to when a shift is rounded
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    // -- Methods -- \\
+    /**
+     * Applies a bitwise operation to two integers, rounding the result to {@code context}
+     * @param operation the operation, such as {@link #AND}
+     * @throws ArithmeticException if an operand isn't an integer, or an operand or a shift left is too large
+     */
+    static BigDecimal apply(int operation, BigDecimal first, BigDecimal second, MathContext context) throws ArithmeticException {
+        if (first.scale() == 0 && second.scale() == 0 && first.precision() <= 18 && second.precision() <= 18) { //both fit in longs
+            final long FIRST = first.longValue(), SECOND = second.longValue();
+            if (isExact(operation, FIRST, SECOND)) {return BigDecimal.valueOf(apply(operation, FIRST, SECOND)).round(context);}
+        }
+        final BigInteger FIRST = integer(first), SECOND = integer(second);
+
+        if (context.getPrecision() > 0 && (operation == SHIFT_LEFT || operation == SHIFT_RIGHT)) {
+            final BigInteger LEFT = (operation == SHIFT_LEFT) ? SECOND : SECOND.negate(); //how far the bits move left
+            if (LEFT.signum() > 0) {return scale(new BigDecimal(FIRST), LEFT, context);}
+        }
+        return new BigDecimal(apply(operation, FIRST, SECOND), context);
+    }
+
+    /**
+     * Multiplies {@code number} by {@code 2^left}, rounded to {@code context}, without working out
+     * the digits that are rounded off
+     * @throws ArithmeticException if the result is too large for a {@link BigDecimal}
+     */
+    private static BigDecimal scale(BigDecimal number, BigInteger left, MathContext context) throws ArithmeticException {
+        if (number.signum() == 0) return BigDecimal.ZERO;
+
+        final double EXPONENT = (number.precision() - number.scale()) + left.doubleValue()*Math.log10(2); //the power of ten of the result
+        if (left.bitLength() >= 32 || EXPONENT >= Integer.MAX_VALUE) {throw new ArithmeticException("Shift is too large");}
+
+        final MathContext WORKING = new MathContext(context.getPrecision() + GUARD, RoundingMode.HALF_EVEN);
+        return number.multiply(TWO.pow(left.intValue(), WORKING), context); //exact if the product fits in the precision
+    }
+
+    /**
+     * Applies a bitwise operation to two integers
+     * @param operation the operation, such as {@link #AND}
+     * @throws ArithmeticException if a shift left has more than {@value #MAX_DIGITS} digits
+     */
+    static BigInteger apply(int operation, BigInteger first, BigInteger second) throws ArithmeticException {
+        switch (operation) {
+            case AND:
+                return first.and(second);
+            case OR:
+                return first.or(second);
+            case XOR:
+                return first.xor(second);
+            case SHIFT_LEFT:
+                return shift(first, second);
+            case SHIFT_RIGHT:
+                return shift(first, second.negate());
+        }
+        throw new IllegalArgumentException(String.format("Unknown bitwise operation %d", operation));
+    }
+
+    /**
+     * Shifts {@code number} left by {@code shift} bits, or right if {@code shift} is negative
+     * @throws ArithmeticException if the result has more than {@value #MAX_DIGITS} digits
+     */
+    private static BigInteger shift(BigInteger number, BigInteger shift) throws ArithmeticException {
+        if (shift.signum() < 0 && shift.bitLength() >= 32) {return (number.signum() < 0) ? BigInteger.ONE.negate() : BigInteger.ZERO;} //every bit is shifted out
+        if (number.signum() == 0) return BigInteger.ZERO;
+        if (shift.bitLength() >= 32 || number.bitLength() + shift.longValue() > MAX_BITS) {throw new ArithmeticException("Shift is too large");}
+        return number.shiftLeft(shift.intValue());
+    }
+
+    /**
+     * Applies a bitwise operation in {@code double} arithmetic. The operands are converted to
+     * {@code long}s, so their bits past the 64th are lost, but shifts are computed on the
+     * {@code double}s and can go past the range of a {@code long}.
+     * @param operation the operation, such as {@link #AND}
+     * @throws ArithmeticException if an operand isn't an integer
+     */
+    static double apply(int operation, double first, double second) throws ArithmeticException {
+        switch (operation) {
+            case SHIFT_LEFT:
+            case SHIFT_RIGHT:
+                final long SHIFT = integer(second);
+                final int EXPONENT = (int)Math.max(-4096, Math.min(4096, (operation == SHIFT_LEFT) ? SHIFT : -SHIFT)); //past the range of a double
+                final double RESULT = Math.scalb((double)integer(first), EXPONENT);
+                return (EXPONENT < 0) ? Math.floor(RESULT) : RESULT;
+        }
+        return apply(operation, integer(first), integer(second));
+    }
+
+    /**
+     * Applies a bitwise operation to two {@code long}s
+     * @param operation the operation, such as {@link #AND}
+     * @return the result, which is only correct if {@link #isExact(int, long, long)}
+     */
+    static long apply(int operation, long first, long second) {
+        switch (operation) {
+            case AND:
+                return first & second;
+            case OR:
+                return first | second;
+            case XOR:
+                return first ^ second;
+            case SHIFT_LEFT:
+                return (second >= 0) ? first << second : first >> Math.min(-second, 63);
+            case SHIFT_RIGHT:
+                return (second >= 0) ? first >> Math.min(second, 63) : first << -second;
+        }
+        throw new IllegalArgumentException(String.format("Unknown bitwise operation %d", operation));
+    }
+
+    /** @return whether the result of {@code operation} on {@code first} and {@code second} fits in a {@code long} */
+    static boolean isExact(int operation, long first, long second) {
+        if (operation != SHIFT_LEFT && operation != SHIFT_RIGHT) return true;
+        if (second == Long.MIN_VALUE) return first == 0;
+
+        final long LEFT = (operation == SHIFT_LEFT) ? second : -second; //how far the bits move left
+        if (LEFT <= 0) return true;
+        return LEFT < 64 && (first << LEFT) >> LEFT == first;
+    }
+
+    /**
+     * @return {@code number} as a {@link BigInteger}
+     * @throws ArithmeticException if {@code number} has a fractional part or more than {@value #MAX_DIGITS} digits
+     */
+    private static BigInteger integer(BigDecimal number) throws ArithmeticException {
+        if (number.signum() == 0) return BigInteger.ZERO;
+        //the number of digits before the point, checked before the digits are expanded
+        final long DIGITS = (long)number.precision() - number.scale();
+        if (DIGITS <= 0) {throw new ArithmeticException("Bitwise operand is not an integer");}
+        if (DIGITS > MAX_DIGITS) {throw new ArithmeticException("Bitwise operand is too large");}
+        try {
+            return number.toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Bitwise operand is not an integer");
+        }
+    }
+
+    /**
+     * @return {@code number} as a {@code long}, saturating past the range of a {@code long}
+     * @throws ArithmeticException if {@code number} isn't an integer
+     */
+    private static long integer(double number) throws ArithmeticException {
+        if (number != Math.rint(number) || Double.isInfinite(number)) {throw new ArithmeticException("Bitwise operand is not an integer");} //NaN isn't equal to itself
+        return (long)number;
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compilation backend that turns a {@link Program} into a generated class, defined as a hidden
+ * class, with a single straight-line method that evaluates the whole program. The JIT can inline
+ * and register-allocate the generated method like any hand-written Java method.
+ * <p>Programs that cannot be compiled, such as programs too large for a single method, fall back
+ * to the {@link Program#evaluateDouble(double...)} interpreter.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see CompiledProgram
+ */
+public abstract class BytecodeCompiler {
+    // -- Attributes -- \\
+    private static final int MAX_CODE_LENGTH = 65535; //The largest method the JVM accepts, which is reached before the largest constant pool
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // -- Methods -- \\
+    /**
+     * Compiles {@code program} into a generated class
+     * @param program the program to compile
+     * @return the compiled program, or the interpreted {@code program} if it could not be compiled
+     */
+    public static CompiledProgram compile(Program program) {
+        try {
+            byte[] bytes = new ClassWriter(program).write();
+            if (bytes == null) {return program::evaluateDouble;}
+
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+            return (CompiledProgram)hidden.lookupClass().getConstructor(String[].class).newInstance((Object)program.VARIABLES);
+        } catch (IOException | ReflectiveOperationException | IllegalArgumentException | LinkageError e) {
+            return program::evaluateDouble;
+        }
+    }
+
+    /**
+     * Binds {@code handle} as a constant of a generated class, so the JIT can inline the handle
+     * into the callers of the compiled program as it inlines a generated method
+     * @param handle a handle of {@link MethodHandleCompiler#PROGRAM_TYPE}
+     * @return the compiled program that invokes {@code handle}
+     * @throws ReflectiveOperationException if the generated class can't be created
+     */
+    static CompiledProgram bind(MethodHandle handle) throws ReflectiveOperationException {
+        try {
+            byte[] bytes = new ClassWriter(null).writeBound();
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(bytes, handle, true);
+            return (CompiledProgram)hidden.lookupClass().getConstructor().newInstance();
+        } catch (IOException e) { //only written to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes the class file of a compiled {@link Program}, or of a bound handle */
+    private static final class ClassWriter {
+        // -- Attributes -- \\
+        private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020, ACC_VARARGS = 0x0080;
+
+        private static final int ALOAD_0 = 0x2A, ALOAD_1 = 0x2B, ARRAYLENGTH = 0xBE, GETFIELD = 0xB4, PUTFIELD = 0xB5, LDC_W = 0x13, LDC2_W = 0x14, BIPUSH = 0x10, SIPUSH = 0x11;
+        private static final int DALOAD = 0x31, DADD = 0x63, DSUB = 0x67, DMUL = 0x6B, DNEG = 0x77;
+        private static final int DRETURN = 0xAF, RETURN = 0xB1, GETSTATIC = 0xB2, PUTSTATIC = 0xB3, CHECKCAST = 0xC0;
+        private static final int INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7, INVOKESTATIC = 0xB8;
+
+        private final Program PROGRAM;
+
+        private final ByteArrayOutputStream POOL_BYTES = new ByteArrayOutputStream();
+        private final DataOutputStream POOL = new DataOutputStream(POOL_BYTES);
+        private final Map<String, Integer> ENTRIES = new HashMap<>();
+        private int poolSize = 1;
+
+        private final ByteArrayOutputStream CODE = new ByteArrayOutputStream();
+        private int stack = 0;
+        private int maxStack = 0;
+
+        // -- Constructors -- \\
+        private ClassWriter(Program program) {
+            PROGRAM = program;
+        }
+
+        // -- Methods -- \\
+        /**
+         * Adds an entry to the constant pool unless an equal entry already exists
+         * @param key a key unique to the entry
+         * @param slots the number of pool slots the entry takes
+         * @param tag the tag of the entry
+         * @param body the bytes of the entry after its tag
+         * @return the index of the entry
+         */
+        private int entry(String key, int slots, int tag, byte[] body) throws IOException {
+            Integer index = ENTRIES.get(key);
+            if (index != null) {return index;}
+
+            POOL.writeByte(tag);
+            POOL.write(body);
+            ENTRIES.put(key, poolSize);
+            poolSize += slots;
+            return poolSize - slots;
+        }
+
+        private static byte[] shorts(int... values) {
+            byte[] bytes = new byte[values.length*2];
+            for (int index = 0; index < values.length; index++) {
+                bytes[index*2] = (byte)(values[index] >> 8);
+                bytes[index*2+1] = (byte)values[index];
+            }
+            return bytes;
+        }
+
+        private int utf8(String value) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(value);
+            return entry("U"+value, 1, 1, bytes.toByteArray());
+        }
+        private int classEntry(String name) throws IOException {
+            return entry("C"+name, 1, 7, shorts(utf8(name)));
+        }
+        private int doubleEntry(double value) throws IOException {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D"+bits, 2, 6, new byte[] {
+                    (byte)(bits >> 56), (byte)(bits >> 48), (byte)(bits >> 40), (byte)(bits >> 32),
+                    (byte)(bits >> 24), (byte)(bits >> 16), (byte)(bits >> 8), (byte)bits});
+        }
+        private int field(String owner, String name, String descriptor) throws IOException {
+            int nameAndType = entry("N"+name+descriptor, 1, 12, shorts(utf8(name), utf8(descriptor)));
+            return entry("F"+owner+"."+name+descriptor, 1, 9, shorts(classEntry(owner), nameAndType));
+        }
+        private int method(String owner, String name, String descriptor) throws IOException {
+            int nameAndType = entry("N"+name+descriptor, 1, 12, shorts(utf8(name), utf8(descriptor)));
+            return entry("M"+owner+"."+name+descriptor, 1, 10, shorts(classEntry(owner), nameAndType));
+        }
+
+        /**
+         * Writes an instruction to the code of the evaluating method
+         * @param change the change in the operand stack size, in slots
+         * @param bytes the opcode followed by its operand bytes
+         */
+        private void instruction(int change, int... bytes) {
+            for (int value : bytes) {CODE.write(value);}
+            stack += change;
+            maxStack = Math.max(maxStack, stack);
+        }
+        private void call(int change, String owner, String name, String descriptor) throws IOException {
+            int index = method(owner, name, descriptor);
+            instruction(change, INVOKESTATIC, index >> 8, index);
+        }
+
+        private void pushInt(int value) throws IOException {
+            if (value < 128) {
+                instruction(1, BIPUSH, value);
+            } else if (value < 32768) {
+                instruction(1, SIPUSH, value >> 8, value);
+            } else {
+                int constant = entry("I"+value, 1, 3, new byte[] {(byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value});
+                instruction(1, LDC_W, constant >> 8, constant);
+            }
+        }
+
+        /** Writes the instructions of a single opcode of the program */
+        private void compile(byte opcode, int operand) throws IOException {
+            switch (opcode) {
+                case Program.NUMBER:
+                    int constant = doubleEntry(PROGRAM.DOUBLE_CONSTANTS[operand]);
+                    instruction(2, LDC2_W, constant >> 8, constant);
+                    break;
+                case Program.VARIABLE:
+                    instruction(1, ALOAD_1);
+                    pushInt(operand);
+                    instruction(0, DALOAD);
+                    break;
+                case Program.NEGATE:
+                    instruction(0, DNEG);
+                    break;
+                case Program.OPERATOR:
+                    switch ((char)operand) {
+                        case '+': instruction(-2, DADD); break;
+                        case '-': instruction(-2, DSUB); break;
+                        case '*': instruction(-2, DMUL); break;
+                        case '^': call(-2, "java/lang/Math", "pow", "(DD)D"); break;
+                        default: //the operators that check their operands go through the interpreter's implementation
+                            instruction(1, BIPUSH, operand);
+                            call(-3, "Expression", "operation", "(DDC)D");
+                    }
+                    break;
+                case Program.FUNCTION:
+                    switch (operand) {
+                        case Functions.SQRT: call(0, "java/lang/Math", "sqrt", "(D)D"); break;
+                        case Functions.ABS: call(0, "java/lang/Math", "abs", "(D)D"); break;
+                        case Functions.SIN: call(0, "java/lang/Math", "sin", "(D)D"); break;
+                        case Functions.COS: call(0, "java/lang/Math", "cos", "(D)D"); break;
+                        case Functions.TAN: call(0, "java/lang/Math", "tan", "(D)D"); break;
+                        case Functions.ARCSIN: call(0, "java/lang/Math", "asin", "(D)D"); break;
+                        case Functions.ARCCOS: call(0, "java/lang/Math", "acos", "(D)D"); break;
+                        case Functions.ARCTAN: call(0, "java/lang/Math", "atan", "(D)D"); break;
+                        default: //other functions are called through the registry by id, after their arguments
+                            final int ARITY = Functions.arity(operand);
+                            if (ARITY > 3) {throw new IllegalArgumentException(String.format("Function '%s' takes too many arguments to compile", Functions.name(operand)));}
+                            pushInt(operand);
+                            call(1 - 2*ARITY, "Functions", "call", "(" + "D".repeat(ARITY) + "I)D");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown opcode %d", opcode));
+            }
+        }
+
+        /**
+         * Writes the class file of the compiled program
+         * @return the bytes of the class file, or {@code null} if the program is too large to compile
+         */
+        private byte[] write() throws IOException {
+            int thisClass = classEntry("CompiledProgram$Generated");
+            int superClass = classEntry("java/lang/Object");
+            int superInterface = classEntry("CompiledProgram");
+            int constructor = method("java/lang/Object", "<init>", "()V");
+            int variables = field("CompiledProgram$Generated", "VARIABLES", "[Ljava/lang/String;");
+            int codeName = utf8("Code");
+            int variablesName = utf8("VARIABLES"), variablesType = utf8("[Ljava/lang/String;");
+            int initName = utf8("<init>"), initType = utf8("([Ljava/lang/String;)V");
+            int evaluateName = utf8("evaluate"), evaluateType = utf8("([D)D");
+
+            //Program.checkValues(values.length, VARIABLES), so missing values fail as they do in the interpreter
+            instruction(1, ALOAD_1);
+            instruction(0, ARRAYLENGTH);
+            instruction(1, ALOAD_0);
+            instruction(0, GETFIELD, variables >> 8, variables);
+            call(-2, "Program", "checkValues", "(I[Ljava/lang/String;)V");
+            for (int index = 0; index < PROGRAM.CODE.length; index++) {
+                compile(PROGRAM.CODE[index], PROGRAM.OPERANDS[index]);
+            }
+            instruction(-2, DRETURN);
+            if (CODE.size() > MAX_CODE_LENGTH) {return null;}
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeHeader(out, thisClass, superClass, superInterface);
+            out.writeShort(1); //fields
+
+            //private final String[] VARIABLES;
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(variablesName);
+            out.writeShort(variablesType);
+            out.writeShort(0);
+
+            out.writeShort(2); //methods
+
+            //public CompiledProgram$Generated(String[] variables) {super(); VARIABLES = variables;}
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(initName);
+            out.writeShort(initType);
+            out.writeShort(1);
+            byte[] init = {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(constructor >> 8), (byte)constructor,
+                    (byte)ALOAD_0, (byte)ALOAD_1, (byte)PUTFIELD, (byte)(variables >> 8), (byte)variables, (byte)RETURN};
+            writeCode(out, codeName, 2, 2, init);
+
+            //public double evaluate(double... values) {...}
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_VARARGS);
+            out.writeShort(evaluateName);
+            out.writeShort(evaluateType);
+            out.writeShort(1);
+            writeCode(out, codeName, maxStack, 2, CODE.toByteArray());
+
+            out.writeShort(0); //attributes
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Writes the class file of a class that evaluates by invoking {@code handle}, which it
+         * holds in a {@code static final} field so the JIT treats the handle as a constant
+         * @return the bytes of the class file, which must be defined with the handle as its class data
+         */
+        private byte[] writeBound() throws IOException {
+            int thisClass = classEntry("CompiledProgram$Bound");
+            int superClass = classEntry("java/lang/Object");
+            int superInterface = classEntry("CompiledProgram");
+            int constructor = method("java/lang/Object", "<init>", "()V");
+            int handle = field("CompiledProgram$Bound", "HANDLE", "Ljava/lang/invoke/MethodHandle;");
+            int handleClass = classEntry("java/lang/invoke/MethodHandle");
+            int lookup = method("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+            int classData = method("java/lang/invoke/MethodHandles", "classData", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+            int invokeExact = method("java/lang/invoke/MethodHandle", "invokeExact", "([D)D");
+            int dataName = entry("S_", 1, 8, shorts(utf8("_")));
+            int codeName = utf8("Code");
+            int handleName = utf8("HANDLE"), handleType = utf8("Ljava/lang/invoke/MethodHandle;");
+            int clinitName = utf8("<clinit>"), initName = utf8("<init>"), initType = utf8("()V");
+            int evaluateName = utf8("evaluate"), evaluateType = utf8("([D)D");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeHeader(out, thisClass, superClass, superInterface);
+            out.writeShort(1); //fields
+
+            //private static final MethodHandle HANDLE;
+            out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+            out.writeShort(handleName);
+            out.writeShort(handleType);
+            out.writeShort(0);
+
+            out.writeShort(3); //methods
+
+            //static {HANDLE = MethodHandles.classData(MethodHandles.lookup(), "_", MethodHandle.class);}
+            out.writeShort(ACC_STATIC);
+            out.writeShort(clinitName);
+            out.writeShort(initType);
+            out.writeShort(1);
+            byte[] clinit = {(byte)INVOKESTATIC, (byte)(lookup >> 8), (byte)lookup,
+                    (byte)LDC_W, (byte)(dataName >> 8), (byte)dataName, (byte)LDC_W, (byte)(handleClass >> 8), (byte)handleClass,
+                    (byte)INVOKESTATIC, (byte)(classData >> 8), (byte)classData, (byte)CHECKCAST, (byte)(handleClass >> 8), (byte)handleClass,
+                    (byte)PUTSTATIC, (byte)(handle >> 8), (byte)handle, (byte)RETURN};
+            writeCode(out, codeName, 3, 0, clinit);
+
+            //public CompiledProgram$Bound() {super();}
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(initName);
+            out.writeShort(initType);
+            out.writeShort(1);
+            byte[] init = {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(constructor >> 8), (byte)constructor, (byte)RETURN};
+            writeCode(out, codeName, 1, 1, init);
+
+            //public double evaluate(double... values) {return (double)HANDLE.invokeExact(values);}
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_VARARGS);
+            out.writeShort(evaluateName);
+            out.writeShort(evaluateType);
+            out.writeShort(1);
+            byte[] evaluate = {(byte)GETSTATIC, (byte)(handle >> 8), (byte)handle, (byte)ALOAD_1,
+                    (byte)INVOKEVIRTUAL, (byte)(invokeExact >> 8), (byte)invokeExact, (byte)DRETURN};
+            writeCode(out, codeName, 2, 2, evaluate);
+
+            out.writeShort(0); //attributes
+            return bytes.toByteArray();
+        }
+
+        /** Writes the start of the class file up to its fields, once the constant pool is complete */
+        private void writeHeader(DataOutputStream out, int thisClass, int superClass, int superInterface) throws IOException {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); //minor version
+            out.writeShort(52); //major version, straight-line code needs no stack map frames
+            out.writeShort(poolSize);
+            POOL.flush();
+            POOL_BYTES.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(superInterface);
+        }
+
+        private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); //exception table
+            out.writeShort(0); //attributes
+        }
+    }
+}
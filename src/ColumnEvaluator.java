@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * Evaluates a compiled {@link Program} over whole columns of variable values at once, such as
+ * scoring every row of a table with the same {@link Formula}. Rows are evaluated in blocks, and
+ * each opcode of the program runs as one tight loop over a block of primitive {@code double}s,
+ * which the JIT compiles to SIMD instructions for the arithmetic operators.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Program#evaluateDouble(double...)
+ */
+public abstract class ColumnEvaluator {
+    // -- Attributes -- \\
+    private static final int BLOCK = 1024; //The number of rows evaluated by each loop, small enough to stay in cache
+
+    // -- Methods -- \\
+    /**
+     * Evaluates {@code program} for every row of {@code columns}
+     * @param program the program to evaluate
+     * @param columns the values of each variable of the program in slot order, one row per index
+     * @return the result of the program for each row
+     * @throws ArithmeticException if the program divides by {@code 0} in any row
+     * @throws UnknownVariableException if there are fewer {@code columns} than variables
+     * @throws IllegalArgumentException if the columns are not all the same length
+     * @see Program#variables()
+     */
+    public static double[] evaluate(Program program, double[]... columns) throws ArithmeticException {
+        if (columns.length < program.VARIABLES.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a column", program.VARIABLES[columns.length]));
+        }
+        final int ROWS = (columns.length > 0) ? columns[0].length : 1;
+        for (double[] column : columns) {
+            if (column.length != ROWS) {throw new IllegalArgumentException("Columns must all be the same length");}
+        }
+
+        final double[] RESULTS = new double[ROWS];
+        final double[][] STACK = new double[program.DEPTH][Math.min(BLOCK, ROWS)];
+
+        for (int start = 0; start < ROWS; start += BLOCK) {
+            final int LENGTH = Math.min(BLOCK, ROWS - start);
+            int top = -1;
+
+            for (int index = 0; index < program.CODE.length; index++) {
+                int operand = program.OPERANDS[index];
+
+                switch (program.CODE[index]) {
+                    case Program.NUMBER:
+                        Arrays.fill(STACK[++top], 0, LENGTH, program.DOUBLE_CONSTANTS[operand]);
+                        break;
+                    case Program.VARIABLE:
+                        System.arraycopy(columns[operand], start, STACK[++top], 0, LENGTH);
+                        break;
+                    case Program.NEGATE:
+                        negate(STACK[top], LENGTH);
+                        break;
+                    case Program.OPERATOR:
+                        top--;
+                        operation(STACK[top], STACK[top+1], LENGTH, (char)operand);
+                        break;
+                    case Program.FUNCTION:
+                        final int ARITY = Functions.arity(operand);
+                        top -= ARITY-1;
+                        if (ARITY == 1) {
+                            function(STACK[top], LENGTH, operand);
+                        } else {
+                            function(STACK, top, ARITY, LENGTH, operand);
+                        }
+                        break;
+                    case Program.VECTOR:
+                        throw Program.notScalar();
+                }
+            }
+            System.arraycopy(STACK[0], 0, RESULTS, start, LENGTH);
+        }
+        return RESULTS;
+    }
+
+    private static void negate(double[] values, int length) {
+        for (int row = 0; row < length; row++) {values[row] = -values[row];}
+    }
+
+    private static void checkDivisor(double[] divisors, int length) {
+        for (int row = 0; row < length; row++) {
+            if (divisors[row] == 0) {throw new ArithmeticException("Divide by 0");}
+        }
+    }
+
+    /** Applies {@code operator} to every row, leaving the results in {@code first} */
+    private static void operation(double[] first, double[] second, int length, char operator) {
+        switch (operator) {
+            case '+':
+                for (int row = 0; row < length; row++) {first[row] += second[row];}
+                break;
+            case '-':
+                for (int row = 0; row < length; row++) {first[row] -= second[row];}
+                break;
+            case '*':
+                for (int row = 0; row < length; row++) {first[row] *= second[row];}
+                break;
+            case '/':
+                checkDivisor(second, length);
+                for (int row = 0; row < length; row++) {first[row] /= second[row];}
+                break;
+            case '%':
+                checkDivisor(second, length);
+                for (int row = 0; row < length; row++) {first[row] %= second[row];}
+                break;
+            case '^':
+                for (int row = 0; row < length; row++) {first[row] = Math.pow(first[row], second[row]);}
+                break;
+            default:
+                for (int row = 0; row < length; row++) {first[row] = Expression.operation(first[row], second[row], operator);}
+        }
+    }
+
+    /** Applies the function with the id {@code function} to every row of {@code values} */
+    private static void function(double[] values, int length, int function) {
+        switch (function) {
+            case Functions.SQRT:
+                for (int row = 0; row < length; row++) {values[row] = Math.sqrt(values[row]);}
+                break;
+            case Functions.ABS:
+                for (int row = 0; row < length; row++) {values[row] = Math.abs(values[row]);}
+                break;
+            default:
+                for (int row = 0; row < length; row++) {values[row] = Functions.apply(function, values[row]);}
+        }
+    }
+
+    /** Applies a function that doesn't take one argument to every row, leaving the results in {@code stack[first]} */
+    private static void function(double[][] stack, int first, int arity, int length, int function) {
+        for (int row = 0; row < length; row++) {
+            final double[] ARGUMENTS = new double[arity];
+            for (int index = 0; index < arity; index++) {ARGUMENTS[index] = stack[first+index][row];}
+            stack[first][row] = Functions.apply(function, ARGUMENTS);
+        }
+    }
+}
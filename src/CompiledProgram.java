@@ -0,0 +1,19 @@
+/**
+ * A {@link Program} compiled by one of the compilation backends into a form the JIT can inline,
+ * which evaluates the program using {@code double} arithmetic.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see BytecodeCompiler
+ */
+public interface CompiledProgram {
+    /**
+     * Evaluates the compiled program
+     * @param values the values of the variables in slot order
+     * @return the result of the program
+     * @throws ArithmeticException if the program divides by {@code 0}
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see Program#evaluateDouble(double...)
+     * @see Program#variables()
+     */
+    public abstract double evaluate(double... values) throws ArithmeticException;
+}
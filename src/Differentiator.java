@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ * Evaluates a compiled {@link Program} together with its gradient, the partial derivative of
+ * the result by each variable, in a single pass using forward-mode automatic differentiation.
+ * Every value on the stack carries its derivative by each variable alongside it, and each opcode
+ * applies the chain rule to them as it computes the value, so the gradient is exact to
+ * {@code double} precision and costs one pass over the program rather than two extra
+ * evaluations per variable for finite differences.
+ * <p>Registered functions have no known derivative, so their partial derivatives are estimated
+ * from the function itself with central differences; the rest of the program is still
+ * differentiated exactly. Where a derivative is undefined, such as {@code abs} at {@code 0} or
+ * {@code sqrt} at {@code 0}, the gradient may be infinite or {@code NaN}. The bitwise operators
+ * and functions are only defined on integers, so their derivatives by any variable they depend
+ * on are {@code NaN}.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Program#evaluateDouble(double...)
+ * @see Formula#evaluateGradient(java.util.Map)
+ */
+public abstract class Differentiator {
+    // -- Methods -- \\
+    /**
+     * Evaluates {@code program} and its gradient using {@code double} arithmetic
+     * @param program the program to evaluate
+     * @param gradient where to store the partial derivative of the result by each variable, in slot order
+     * @param values the values of the variables in slot order
+     * @return the result of the program
+     * @throws ArithmeticException if the program divides by {@code 0}
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @throws IllegalArgumentException if {@code gradient} has fewer elements than the program has variables
+     * @see Program#variables()
+     */
+    public static double evaluate(Program program, double[] gradient, double... values) throws ArithmeticException {
+        final int VARIABLES = program.VARIABLES.length;
+        if (values.length < VARIABLES) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", program.VARIABLES[values.length]));
+        }
+        if (gradient.length < VARIABLES) {throw new IllegalArgumentException("The gradient must have an element for every variable");}
+
+        final double[] STACK = new double[program.DEPTH];
+        final double[][] DERIVATIVES = new double[program.DEPTH][VARIABLES]; //The partial derivatives of each value on the stack
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            final int OPERAND = program.OPERANDS[index];
+
+            switch (program.CODE[index]) {
+                case Program.NUMBER:
+                    STACK[++top] = program.DOUBLE_CONSTANTS[OPERAND];
+                    Arrays.fill(DERIVATIVES[top], 0);
+                    break;
+                case Program.VARIABLE:
+                    STACK[++top] = values[OPERAND];
+                    Arrays.fill(DERIVATIVES[top], 0);
+                    DERIVATIVES[top][OPERAND] = 1;
+                    break;
+                case Program.NEGATE:
+                    STACK[top] = -STACK[top];
+                    scale(DERIVATIVES[top], -1);
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    STACK[top] = operation(STACK[top], DERIVATIVES[top], STACK[top+1], DERIVATIVES[top+1], (char)OPERAND);
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(OPERAND);
+                    if (ARITY == 1) {
+                        STACK[top] = function(OPERAND, STACK[top], DERIVATIVES[top]);
+                    } else {
+                        top -= ARITY-1;
+                        STACK[top] = function(OPERAND, STACK, DERIVATIVES, top, ARITY);
+                    }
+                    break;
+                case Program.VECTOR:
+                    throw Program.notScalar();
+            }
+        }
+
+        System.arraycopy(DERIVATIVES[0], 0, gradient, 0, VARIABLES);
+        return STACK[0];
+    }
+
+    /** Multiplies every partial derivative in {@code derivatives} by {@code factor} */
+    private static void scale(double[] derivatives, double factor) {
+        for (int variable = 0; variable < derivatives.length; variable++) {derivatives[variable] *= factor;}
+    }
+
+    /** @return whether every partial derivative in {@code derivatives} is {@code 0} */
+    private static boolean isConstant(double[] derivatives) {
+        for (double derivative : derivatives) {
+            if (derivative != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies {@code operator} to {@code first} and {@code second}, storing the partial derivatives
+     * of the result in {@code firstDerivatives}
+     * @return the result of the operation
+     * @throws ArithmeticException if the operation divides by {@code 0}
+     */
+    private static double operation(double first, double[] firstDerivatives, double second, double[] secondDerivatives, char operator) throws ArithmeticException {
+        final double RESULT = Expression.operation(first, second, operator);
+
+        for (int variable = 0; variable < firstDerivatives.length; variable++) {
+            final double DU = firstDerivatives[variable];
+            final double DV = secondDerivatives[variable];
+
+            switch (operator) {
+                case '+':
+                    firstDerivatives[variable] = DU + DV;
+                    break;
+                case '-':
+                    firstDerivatives[variable] = DU - DV;
+                    break;
+                case '*':
+                    firstDerivatives[variable] = DU*second + first*DV;
+                    break;
+                case '/':
+                    firstDerivatives[variable] = (DU*second - first*DV) / (second*second);
+                    break;
+                case '%': //u % v is u - trunc(u/v)*v, which is flat in the quotient between its jumps
+                    firstDerivatives[variable] = DU - ((first - RESULT) / second)*DV;
+                    break;
+                case '^': //only apply each side of the chain rule where it changes, so a constant exponent or base doesn't bring in a NaN
+                    double derivative = 0;
+                    if (DU != 0) {derivative += second*Math.pow(first, second-1)*DU;}
+                    if (DV != 0) {derivative += RESULT*Math.log(first)*DV;}
+                    firstDerivatives[variable] = derivative;
+                    break;
+                case 'e': //u*10^v, where the exponent is truncated to an integer
+                    firstDerivatives[variable] = (first == 0) ? DU*Math.pow(10, (int)second) : RESULT/first*DU;
+                    break;
+                case '&': //only defined on integers, so there is no neighbourhood to differentiate over
+                case '|':
+                    firstDerivatives[variable] = (DU != 0 || DV != 0) ? Double.NaN : 0;
+                    break;
+            }
+        }
+        return RESULT;
+    }
+
+    /**
+     * Applies a function of one argument to {@code value}, multiplying its partial derivatives by
+     * the derivative of the function
+     * @return the result of the function
+     */
+    private static double function(int id, double value, double[] derivatives) throws ArithmeticException {
+        final double RESULT = Functions.apply(id, value);
+        if (isConstant(derivatives)) return RESULT;
+
+        final double DERIVATIVE;
+        switch (id) {
+            case Functions.SQRT:
+                DERIVATIVE = 0.5 / RESULT;
+                break;
+            case Functions.ABS:
+            case Functions.NORM:
+                DERIVATIVE = Math.signum(value);
+                break;
+            case Functions.SUM:
+                DERIVATIVE = 1;
+                break;
+            case Functions.SIN:
+                DERIVATIVE = Math.cos(value);
+                break;
+            case Functions.COS:
+                DERIVATIVE = -Math.sin(value);
+                break;
+            case Functions.TAN:
+                DERIVATIVE = 1 / (Math.cos(value)*Math.cos(value));
+                break;
+            case Functions.ARCSIN:
+                DERIVATIVE = 1 / Math.sqrt(1 - value*value);
+                break;
+            case Functions.ARCCOS:
+                DERIVATIVE = -1 / Math.sqrt(1 - value*value);
+                break;
+            case Functions.ARCTAN:
+                DERIVATIVE = 1 / (1 + value*value);
+                break;
+            case Functions.FACTORIAL: //the derivative of gamma(x) is gamma(x)*digamma(x), and integers are gamma(x+1)
+                DERIVATIVE = RESULT * digamma((value == Math.rint(value)) ? value + 1 : value);
+                break;
+            default:
+                DERIVATIVE = difference(id, new double[] {value}, 0);
+        }
+        scale(derivatives, DERIVATIVE);
+        return RESULT;
+    }
+
+    /**
+     * Applies a registered function to the {@code arity} values from {@code start} in {@code stack},
+     * storing the partial derivatives of the result in {@code derivatives[start]}
+     * @return the result of the function
+     */
+    private static double function(int id, double[] stack, double[][] derivatives, int start, int arity) throws ArithmeticException {
+        final double[] ARGUMENTS = Arrays.copyOfRange(stack, start, start+arity);
+        final double RESULT = Functions.apply(id, ARGUMENTS);
+        final boolean BITWISE = id == Functions.XOR || id == Functions.SHL || id == Functions.SHR; //only defined on integers
+        final double[] GRADIENT = new double[derivatives[start].length];
+
+        for (int argument = 0; argument < arity; argument++) {
+            final double[] ARGUMENT_DERIVATIVES = derivatives[start + argument];
+            if (isConstant(ARGUMENT_DERIVATIVES)) {continue;}
+
+            final double DERIVATIVE = BITWISE ? Double.NaN : difference(id, ARGUMENTS, argument);
+            for (int variable = 0; variable < GRADIENT.length; variable++) {
+                if (ARGUMENT_DERIVATIVES[variable] != 0) {GRADIENT[variable] += DERIVATIVE*ARGUMENT_DERIVATIVES[variable];} //a NaN only spreads to the variables it depends on
+            }
+        }
+        System.arraycopy(GRADIENT, 0, derivatives[start], 0, GRADIENT.length);
+        return RESULT;
+    }
+
+    /** Estimates the partial derivative of a registered function by one of its arguments with a central difference */
+    private static double difference(int id, double[] arguments, int argument) {
+        final double VALUE = arguments[argument];
+        final double STEP = Math.cbrt(Math.ulp(1.0)) * Math.max(1, Math.abs(VALUE)); //balances rounding error against truncation error
+
+        arguments[argument] = VALUE + STEP;
+        final double HIGH = Functions.apply(id, arguments.clone());
+        arguments[argument] = VALUE - STEP;
+        final double LOW = Functions.apply(id, arguments.clone());
+        arguments[argument] = VALUE;
+
+        return (HIGH - LOW) / (2*STEP);
+    }
+
+    /** @return the digamma function, the derivative of the logarithm of the gamma function, of {@code x} */
+    private static double digamma(double x) {
+        if (x <= 0 && x == Math.rint(x)) return Double.NaN;
+        if (x < 0) {return digamma(1 - x) - Math.PI / Math.tan(Math.PI * x);} //reflection
+
+        double result = 0;
+        for (; x < 6; x++) {result -= 1 / x;} //shift up until the asymptotic series is accurate
+
+        final double INVERSE_SQUARE = 1 / (x*x);
+        return result + Math.log(x) - 0.5/x - INVERSE_SQUARE*(1.0/12 - INVERSE_SQUARE*(1.0/120 - INVERSE_SQUARE*(1.0/252 - INVERSE_SQUARE*(1.0/240 - INVERSE_SQUARE/132))));
+    }
+}
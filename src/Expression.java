@@ -1,9 +1,6 @@
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.text.ParseException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.util.Arrays;
 
 /**
  * A class that can evaluate expressions to find the result. Expressions are
@@ -13,21 +10,29 @@ import java.util.Stack;
  */
 public class Expression implements Evaluator {
     // -- Attributes -- \\
-    private static final String NUMBERS = "0123456789."; //The supported numbers
-    private static final String PEMDAS = "(e^*/%+#-"; //The order of operations
+    private static final String PEMDAS = "(e^*/%+#-&|"; //The order of operations, with the bitwise operators last
+    private static final byte[] RANKS = new byte[128]; //The position of each operator in PEMDAS plus one, indexed by character
+    private static final int FUNCTION_MARK = 0x10000; //Added to a function id on the operator stack, past every character
     //TODO: add an interpreted language for expressions to read and use
-    //TODO: add vector support through the use of chevrons
-    //TODO: add support for different number bases
     private static final String[] BRACKETS = {"()", "[]", "{}", "<>"}; //The list of bracket types that are supported in string expressions
     //Mathematics Bracket Usage; (): Order of Operation, []: Matrix, {}: Set, <>: Vector
     //Bracket Types: Parentheses, Square Brackets, Braces, and Chevrons
 
-    public static final String[] OPERATIONS = {"^","*","/","%","+","-","e"}; //The list of math operations supported in string expressions
-    public static final String[] FUNCTIONS = {"sqrt","abs","sin","cos","tan","arcsin","arccos","arctan","!"}; //The list of math functions supported in string expressions
+    public static final String[] OPERATIONS = {"^","*","/","%","+","-","e","&","|"}; //The list of math operations supported in string expressions
+    public static final String[] FUNCTIONS = {"sqrt","abs","sin","cos","tan","arcsin","arccos","arctan","!","xor","shl","shr","dot","norm","sum"}; //The built-in math functions, in id order; more can be added to Functions
 
     private static final String[] UNIT_FUNCTIONS = {"sin","cos","tan","arcsin","arccos","arctan"}; //The list of functions that require input values to be converted
 
-    private final StringBuffer EXPRESSION = new StringBuffer();
+    private final StringBuilder EXPRESSION = new StringBuilder(); //Only ever used by one thread, which compiled programs can be shared from
+    private final Tokens TOKENS = new Tokens(false); //The token stream of the expression, updated as it is edited
+    private boolean lexed = false; //Whether TOKENS has been lexed, which is put off until the expression is parsed
+    private Program program; //The compiled expression, or null if the expression changed since it was last compiled
+    private Result.Kind error; //The error of the expression, or null if it hasn't been found invalid since it last changed
+    private int errorPosition; //The index in the text of the error
+
+    static {
+        for (int index = 0; index < PEMDAS.length(); index++) {RANKS[PEMDAS.charAt(index)] = (byte)(index+1);}
+    }
 
     // -- Constructors -- \\
     /**Creates an empty {@link Expression} object*/
@@ -41,23 +46,18 @@ public class Expression implements Evaluator {
     }
 
     // -- Methods -- \\
-    private boolean isOperator(int ch) {
-        return (PEMDAS.indexOf(ch) > -1);
-    }
-
-    private boolean isNumber(int ch) {
-        return (NUMBERS.indexOf(ch) > -1);
+    /**
+     * Updates the token stream and drops the compiled expression after the characters from
+     * {@code start} to {@code end} were replaced with {@code length} characters
+     */
+    private void edited(int start, int end, int length) {
+        if (lexed) {TOKENS.edit(EXPRESSION, start, end, length, null);}
+        program = null;
+        error = null;
     }
 
-    private boolean isLetter(int ch) {
-        return Character.isLetter(ch);
-    }
-
-    private boolean isFunction(String str) {
-        for (String function : FUNCTIONS) {
-            if (str.equals(function)) {return true;}
-        }
-        return false;
+    private static boolean isOperator(int ch) {
+        return ch >= 0 && ch < RANKS.length && RANKS[ch] > 0;
     }
 
     private boolean needsConversion(String function) {
@@ -67,265 +67,343 @@ public class Expression implements Evaluator {
         return false;
     }
 
+    /** @return whether {@code element} opens a bracket or a vector on the operator stack */
+    private static boolean isOpening(int element) {
+        return element == '(' || element == '<';
+    }
+
+    /** @return the position of {@code element} in {@code PEMDAS} plus one, or {@code 0} if it isn't an operator */
+    private static int rank(int element) {
+        return isOperator(element) ? RANKS[element] : 0;
+    }
+
     private boolean canStack(int stackOperator, int operator) {
-        int stackIndex = PEMDAS.indexOf(stackOperator)+1;
-        int operatorIndex = PEMDAS.indexOf(operator)+1;
+        int stackIndex = rank(stackOperator);
+        int operatorIndex = rank(operator);
 
         int stackGroup = (int)Math.ceil(stackIndex/3f);
         int operatorGroup = (int)Math.ceil(operatorIndex/3f);
 
-        return stackOperator == '(' || (stackGroup > 1 && stackGroup == operatorGroup) ? false : stackIndex >= operatorIndex;
-    }
-
-    private BigDecimal function(Stack<String> stack, String function) throws NumberFormatException, ParseException, ArithmeticException {
-        BigDecimal number = new BigDecimal(stack.pop());
-        double value = number.doubleValue();
-
-        switch (function) {
-            case "sqrt":
-            	return number.sqrt(MathContext.DECIMAL128);
-            case "abs":
-            	return number.abs(MathContext.DECIMAL128);
-            case "sin":
-            	return new BigDecimal(Math.sin(value), MathContext.DECIMAL128);
-            case "cos":
-            	return new BigDecimal(Math.cos(value), MathContext.DECIMAL128);
-            case "tan":
-            	return new BigDecimal(Math.tan(value), MathContext.DECIMAL128);
-            case "arcsin":
-            	return new BigDecimal(Math.asin(value), MathContext.DECIMAL128);
-            case "arccos":
-            	return new BigDecimal(Math.acos(value), MathContext.DECIMAL128);
-            case "arctan":
-            	return new BigDecimal(Math.atan(value), MathContext.DECIMAL128);
-            case "!":
-	            if (Utility.isDecimal(number)) {
-	                return new BigDecimal(Utility.gamma(number.doubleValue()));
-	            } else {
-	                return new BigDecimal(Utility.fact(number.longValue()));
-	            }
-        }
-        throw new ParseException(String.format("Unknown function '%s'", function), 0);
+        return isOpening(stackOperator) || (stackGroup > 1 && stackGroup == operatorGroup) ? false : stackIndex >= operatorIndex;
     }
 
-    private BigDecimal operation(Stack<String> stack, char operator) throws NumberFormatException, ParseException, ArithmeticException {
-        String secondary = stack.pop();
-        String primary = stack.pop();
-        
-        BigDecimal first = new BigDecimal(primary);
-        BigDecimal second = new BigDecimal(secondary);
-
+    /**
+     * Applies {@code operator} to {@code first} and {@code second}, rounding the result to {@code context}
+     * @throws ArithmeticException if the result has no defined value, or can't be represented exactly
+     * when {@code context} is unlimited
+     */
+    static BigDecimal operation(BigDecimal first, BigDecimal second, char operator, MathContext context) throws ArithmeticException {
         switch (operator) {
             case 'e':
             	return first.scaleByPowerOfTen(second.intValue());
             case '^':
-            	return new BigDecimal(Math.pow(first.doubleValue(), second.doubleValue()));
+            	return Power.of(first, second, context);
             case '*':
-            	return first.multiply(second, MathContext.DECIMAL128); //prime.doubleValue() * secondary.doubleValue();
+            	return first.multiply(second, context); //prime.doubleValue() * secondary.doubleValue();
             case '/':
-            	if (second.equals("0")) {throw new ArithmeticException("Divide by 0");}
-            	return first.divide(second, MathContext.DECIMAL128); //prime.doubleValue() / secondary.doubleValue();
+            	if (second.signum() == 0) {throw new ArithmeticException("Divide by 0");}
+            	return first.divide(second, context); //prime.doubleValue() / secondary.doubleValue();
             case '%':
-            	if (second.equals("0")) {throw new ArithmeticException("Divide by 0");}
-            	return first.remainder(second, MathContext.DECIMAL128); //prime.doubleValue() % secondary.doubleValue();
+            	if (second.signum() == 0) {throw new ArithmeticException("Divide by 0");}
+            	return first.remainder(second, context); //prime.doubleValue() % secondary.doubleValue();
             case '+':
-            	return first.add(second, MathContext.DECIMAL128); //prime.doubleValue() + secondary.doubleValue();
+            	return first.add(second, context); //prime.doubleValue() + secondary.doubleValue();
             case '-':
-            	return first.subtract(second, MathContext.DECIMAL128); //prime.doubleValue() - secondary.doubleValue();
+            	return first.subtract(second, context); //prime.doubleValue() - secondary.doubleValue();
+            case '&':
+            	return Bitwise.apply(Bitwise.AND, first, second, context);
+            case '|':
+            	return Bitwise.apply(Bitwise.OR, first, second, context);
         }
-        throw new ParseException(String.format("Unknown operator '%c'", operator), 0);
+        throw new IllegalArgumentException(String.format("Unknown operator '%c'", operator));
     }
 
-    private BigDecimal execute(Stack<String> stack, boolean isOperator, String action) throws NumberFormatException, ParseException, ArithmeticException {
-        return isOperator ? operation(stack, action.charAt(0)) : function(stack, action);
+    static double operation(double first, double second, char operator) throws ArithmeticException {
+        switch (operator) {
+            case 'e':
+            	int exponent = (int)second;
+            	return (exponent < 0) ? first / Math.pow(10, -exponent) : first * Math.pow(10, exponent);
+            case '^':
+            	return Math.pow(first, second);
+            case '*':
+            	return first * second;
+            case '/':
+            	if (second == 0) {throw new ArithmeticException("Divide by 0");}
+            	return first / second;
+            case '%':
+            	if (second == 0) {throw new ArithmeticException("Divide by 0");}
+            	return first % second;
+            case '+':
+            	return first + second;
+            case '-':
+            	return first - second;
+            case '&':
+            	return Bitwise.apply(Bitwise.AND, first, second);
+            case '|':
+            	return Bitwise.apply(Bitwise.OR, first, second);
+        }
+        throw new IllegalArgumentException(String.format("Unknown operator '%c'", operator));
     }
 
     /**
-     * Converts an expression from infix to postfix
-     * @return a {@link Queue} with the values, operators, and functions of the expression ordered
-     * to be processed
-     * @throws Exception if the {@code expression} is {@code null} or has invalid syntax
+     * Converts the expression from infix to a postfix {@link Program} without throwing, lexing it
+     * first if it hasn't been lexed since it was created
+     * @return the program of the expression, or {@code null} if the expression is invalid
      */
-    private Queue<String> toPostfix() throws Exception {
-        if (EXPRESSION.toString().length() <= 0) {throw new Exception("Null expression");}
+    private Program parse() {
+        if (!lexed) {
+            TOKENS.lex(EXPRESSION, null);
+            lexed = true;
+        }
+        return parse(EXPRESSION, TOKENS, false);
+    }
 
-        final String EXPRESSION_FORMAT = EXPRESSION.toString().replaceAll("\\s", "")+" ";
-        char[] chars = EXPRESSION_FORMAT.toCharArray();
+    /**
+     * Converts {@code text} from infix to a postfix {@link Program} without throwing, recording
+     * the kind and position of the error in {@code error} and {@code errorPosition} if it fails
+     * @param text the text to convert
+     * @param tokens the token stream of {@code text}, which is up to date with it
+     * @param variables whether names that are not functions are variables of the program
+     * @return the program of {@code text}, or {@code null} if it is invalid
+     */
+    private Program parse(CharSequence text, Tokens tokens, boolean variables) {
+        if (text.length() <= 0) {return fail(Result.Kind.EMPTY, 0);}
 
-        Stack<String> stack = new Stack<>();
-        Queue<String> queue = new LinkedList<>();
+        int[] stack = new int[16]; //operator characters, or FUNCTION_MARK plus a function id
+        int[] positions = new int[16]; //the index in the text of each item on the stack
+        int top = -1;
+        int brackets = 0; //the number of '(' and '<' on the stack
+        int[] elements = new int[4]; //the number of elements so far of each vector open on the stack
+        int vectors = 0;
+        Program.Assembler postfix = new Program.Assembler();
 
-        int numberStart = -1;
-        int functionStart = -1;
         boolean expectOperand = true;
 
-        for (int index = 0; index < chars.length; index++) {
-            char character = chars[index];
-            
-            if (isLetter(character) && ((character != 'e' && functionStart >= -1) || (character == 'e' && functionStart > -1))) {
-                if (functionStart == -1) {functionStart = index;}
-                continue;
-            } else if (functionStart > -1) {
-                stack.push(EXPRESSION_FORMAT.substring(functionStart, index));
-                functionStart = -1;
-                expectOperand = true;
+        for (int token = 0; token < tokens.size(); token++) {
+            final int START = tokens.start(token);
+            final int END = tokens.end(token);
+            if (top+2 >= stack.length) { //room for the two items a token can push
+                stack = Arrays.copyOf(stack, stack.length*2);
+                positions = Arrays.copyOf(positions, stack.length);
             }
+            postfix.at(START);
 
-            if (isNumber(character)) {
-                if (numberStart == -1) {numberStart = index;}
-                continue;
-            } else if (numberStart > -1) {
-                if ((index - numberStart) == 1 && chars[numberStart] == '.') {
-                    throw new Exception("Syntax");
+            //a name or number written with whitespace inside it, such as "1 000", is read without it
+            final CharSequence TEXT = tokens.isSpaced(token) ? Tokens.compact(text, START, END) : text;
+            final int TEXT_START = tokens.isSpaced(token) ? 0 : START;
+            final int TEXT_END = tokens.isSpaced(token) ? TEXT.length() : END;
+
+            if (tokens.kind(token) == Tokens.NAME) {
+                final int FUNCTION = Functions.id(TEXT, TEXT_START, TEXT_END);
+
+                if (variables && FUNCTION == -1) {
+                    postfix.variable(TEXT.subSequence(TEXT_START, TEXT_END).toString());
+                    expectOperand = false;
+                } else if (FUNCTION == -1) {
+                    return fail(Result.Kind.UNKNOWN_NAME, START);
                 } else {
-                    queue.add(EXPRESSION_FORMAT.substring(numberStart, index));
+                    positions[top+1] = START;
+                    stack[++top] = FUNCTION_MARK + FUNCTION;
+                    expectOperand = true;
                 }
-                numberStart = -1;
+                continue;
+            }
+
+            if (tokens.kind(token) == Tokens.NUMBER) {
+                if (!Tokens.isNumber(TEXT, TEXT_START, TEXT_END)) {return fail(Result.Kind.INVALID_NUMBER, START);}
+
+                postfix.number(Tokens.number(TEXT, TEXT_START, TEXT_END));
                 expectOperand = false;
+                continue;
             }
 
+            char character = text.charAt(START);
             if (character == '!') {
-                queue.add(""+character);
+                postfix.function(Functions.FACTORIAL);
                 expectOperand = false;
                 continue;
             }
             
-            if (character == ')') {
-                if (stack.empty() || !stack.contains("(")) {
-                    throw new Exception("Syntax");
-                } else {
-                    while (!stack.empty() && !stack.peek().equals("(")) {
-                        queue.add(stack.pop());
-                    }
-                    stack.pop();
+            if (character == ',') { //finish the argument or element, leaving its bracket on the stack
+                if (brackets == 0) {return fail(Result.Kind.UNBALANCED_BRACKETS, START);}
+                while (!isOpening(stack[top])) {
+                    emit(postfix, stack[top], positions[top--]);
+                }
+                if (stack[top] == '<') {elements[vectors-1]++;}
+                expectOperand = true;
+            } else if (character == ')' || character == '>') {
+                if (brackets == 0) {return fail(Result.Kind.UNBALANCED_BRACKETS, START);}
+                while (!isOpening(stack[top])) {
+                    emit(postfix, stack[top], positions[top--]);
+                }
+                if (stack[top] != ((character == ')') ? '(' : '<')) {return fail(Result.Kind.UNBALANCED_BRACKETS, START);}
+                top--;
+                brackets--;
+
+                if (character == '>') {
+                    final int ELEMENTS = elements[--vectors];
+                    postfix.at(START);
+                    if (ELEMENTS > 1) {postfix.vector(ELEMENTS);} //a vector of one element is a scalar
                 }
+            } else if (character == '<') { //open a vector
+                if (!expectOperand) {
+                    positions[top+1] = START;
+                    stack[++top] = '*';
+                }
+                if (vectors == elements.length) {elements = Arrays.copyOf(elements, vectors*2);}
+                elements[vectors++] = 1;
+
+                positions[top+1] = START;
+                stack[++top] = '<';
+                brackets++;
+                expectOperand = true;
             } else if (isOperator(character)) {
                 if (character == '-' && expectOperand) {
-                    stack.push("#");
+                    positions[top+1] = START;
+                    stack[++top] = '#';
                     expectOperand = false;
-                } else if (character == '(' || stack.empty() || canStack(stack.peek().charAt(0), character)) {
-                    if (!expectOperand && character == '(') {stack.push("*");}
-
-                    expectOperand = !(character == '-' && (expectOperand || (!stack.empty() && stack.peek().equals("-"))));
-                    stack.push(""+ (expectOperand ? character : '#'));
+                } else if (character == '(' || top == -1 || canStack(stack[top], character)) {
+                    if (!expectOperand && character == '(') {
+                        positions[top+1] = START;
+                        stack[++top] = '*';
+                    }
 
-                    // TODO: Add support for fractions parsing
+                    expectOperand = !(character == '-' && (expectOperand || (top > -1 && stack[top] == '-')));
+                    positions[top+1] = START;
+                    stack[++top] = expectOperand ? character : '#';
+                    if (character == '(' && expectOperand) {brackets++;}
                 } else {
                     expectOperand = true;
                     
-                    if (!stack.empty() && !stack.peek().equals("(")) {queue.add(stack.pop());}
-                    stack.push(""+character);
+                    while (top > -1 && !isOpening(stack[top]) && !canStack(stack[top], character)) { //every operator that binds at least as tightly
+                        emit(postfix, stack[top], positions[top--]);
+                    }
+                    positions[top+1] = START;
+                    stack[++top] = character;
                 }
             }
         }
-        while (!stack.empty()) { //add any remaining items on the stack to the queue
-            queue.add(stack.pop());
+        while (top > -1) { //add any remaining items on the stack to the program
+            if (isOpening(stack[top])) {return fail(Result.Kind.UNBALANCED_BRACKETS, positions[top]);}
+            emit(postfix, stack[top], positions[top--]);
+        }
+
+        final int POSITION = postfix.check(text.length());
+        if (POSITION > -1) {
+            final boolean LEFTOVER = POSITION == text.length() && !postfix.isEmpty();
+            return fail(LEFTOVER ? Result.Kind.EXTRA_OPERAND : Result.Kind.MISSING_OPERAND, POSITION);
+        }
+        try {
+            return postfix.assemble();
+        } catch (Exception e) { //unreachable, the opcodes were checked
+            throw new IllegalStateException(e);
         }
+    }
 
-        return queue;
+    /** Records an error found while parsing the expression, and returns {@code null} for the program */
+    private Program fail(Result.Kind error, int position) {
+        this.error = error;
+        errorPosition = position;
+        return null;
     }
 
     /**
-     * Processes a postfix expression and finds the result
-     * @param queue the postfix expression
-     * @return the result of the postfix expression
-     * @throws Exception if an error occurs while processing
+     * Adds an operator or function taken off the operator stack to the {@code postfix} program
+     * @param postfix the program being assembled
+     * @param element the operator character, or {@code FUNCTION_MARK} plus the id of the function
+     * @param position the index in the text the element came from
      */
-    private BigDecimal processPostfix(Queue<String> queue) throws Exception {
-        Stack<String> stack = new Stack<>();
-        
-        while (!queue.isEmpty()) {
-            String element = queue.remove();
-            boolean isOperator = isOperator(element.charAt(0));
-
-            if (isNumber(element.charAt(0))) {
-                boolean negative = !queue.isEmpty() && queue.peek().equals("#");
-                if (negative) {queue.remove();}
-
-                stack.push(negative ? "-"+element : element);
-            } else if (isFunction(element) || isOperator) {
-                if (element == "#") {
-                    if (!stack.empty()) {
-                        stack.push((stack.peek().charAt(0) == '-') ? stack.pop().substring(1) : "-"+stack.pop());
-                        continue;
-                    } else {
-                        throw new Exception("Syntax");
-                    }
-                } else if (stack.empty() || (isOperator && stack.size() < 2)) {
-                    throw new Exception("Syntax");
-                }
-
-                stack.push(execute(stack, isOperator, element).toString());
-            } else {
-                throw new Exception("Syntax");
-            }
+    private void emit(Program.Assembler postfix, int element, int position) {
+        postfix.at(position);
+        if (element == '#') {
+            postfix.negate();
+        } else if (element >= FUNCTION_MARK) {
+            postfix.function(element - FUNCTION_MARK);
+        } else {
+            postfix.operator((char)element);
         }
-
-        if (stack.size() > 1 || stack.empty()) {throw new Exception("Syntax");}
-        return new BigDecimal(stack.pop());
     }
 
     @Override
     public void set(CharSequence seq) {
         if (seq.toString().contentEquals(EXPRESSION)) return; //ignore the call if there's no difference between the expression and seq
-        EXPRESSION.replace(0, EXPRESSION.length(), seq.toString());
+        final int LENGTH = EXPRESSION.length();
+        EXPRESSION.replace(0, LENGTH, seq.toString());
+        edited(0, LENGTH, EXPRESSION.length());
     }
 
     @Override
     public void clear() {
         if (EXPRESSION.isEmpty()) return; //ignore the call if the expression contains no characters
-        EXPRESSION.delete(0, EXPRESSION.length());
+        final int LENGTH = EXPRESSION.length();
+        EXPRESSION.delete(0, LENGTH);
+        edited(0, LENGTH, 0);
     }
 
     @Override
     public void add(char ch) {
         EXPRESSION.append(ch);
+        edited(EXPRESSION.length()-1, EXPRESSION.length()-1, 1);
     }
     @Override
     public void add(CharSequence seq) {
+        final int LENGTH = EXPRESSION.length();
         EXPRESSION.append(seq);
+        edited(LENGTH, LENGTH, EXPRESSION.length()-LENGTH);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void add(int index, char ch) {
         EXPRESSION.insert(index, ch);
+        edited(index, index, 1);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void add(int index, CharSequence seq) {
+        final int LENGTH = EXPRESSION.length();
         EXPRESSION.insert(index, seq);
+        edited(index, index, EXPRESSION.length()-LENGTH);
     }
 
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove() {
-        EXPRESSION.deleteCharAt(EXPRESSION.length()-1);
+        final int LENGTH = EXPRESSION.length();
+        EXPRESSION.deleteCharAt(LENGTH-1);
+        edited(LENGTH-1, LENGTH, 0);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove(int index) {
         EXPRESSION.deleteCharAt(index);
+        edited(index, index+1, 0);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove(int start, int end) {
+        final int LENGTH = EXPRESSION.length();
         EXPRESSION.delete(start, end);
+        edited(start, start + LENGTH-EXPRESSION.length(), 0);
     }
 
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void replace(int index, char ch) {
+        final int LENGTH = EXPRESSION.length();
         EXPRESSION.replace(index, index+1, ""+ch);
+        edited(index, Math.min(index+1, LENGTH), 1);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void replace(int start, int end, CharSequence seq) {
+        final int LENGTH = EXPRESSION.length();
         EXPRESSION.replace(start, end, seq.toString());
+        edited(start, Math.min(end, LENGTH), seq.length());
     }
 
     @Override
     public int length() {
-        return EXPRESSION.toString().length();
+        return EXPRESSION.length();
     }
 
     /**
@@ -354,7 +432,182 @@ public class Expression implements Evaluator {
      * @throws Exception if the expression is incorrectly formatted
      */
     public BigDecimal evaluate() throws Exception {
-        Queue<String> postfix = toPostfix();
-        return processPostfix(postfix);
+        return compile().evaluate();
+    }
+
+    /**
+     * Evaluates the expression, rounding every operation to {@code context}. A smaller precision
+     * such as {@link MathContext#DECIMAL32} is faster, while a larger one gives more digits than
+     * {@link #evaluate()}. {@link MathContext#UNLIMITED} keeps every result exact.
+     * @param context the precision and rounding of each operation
+     * @return the result of the evaluated expression
+     * @throws Exception if the expression is incorrectly formatted
+     * @throws ArithmeticException if {@code context} is unlimited and a result can't be represented exactly,
+     * such as {@code 1/3}
+     * @see Program#evaluate(MathContext, BigDecimal...)
+     */
+    public BigDecimal evaluate(MathContext context) throws Exception {
+        return compile().evaluate(context);
+    }
+
+    /**
+     * Evaluates the expression with the same result as {@link #evaluate()}, holding values as
+     * scaled {@code long}s and only promoting them to {@link BigDecimal}s when they need it, which
+     * is much faster for integer and short decimal arithmetic
+     * @return the result of the evaluated expression
+     * @throws Exception if the expression is incorrectly formatted
+     * @see HybridEvaluator
+     */
+    public BigDecimal evaluateHybrid() throws Exception {
+        return HybridEvaluator.evaluate(compile(), MathContext.DECIMAL128);
+    }
+    /**
+     * Evaluates the expression with the same result as {@link #evaluate(MathContext)}, holding
+     * values as scaled {@code long}s and only promoting them to {@link BigDecimal}s when they need it
+     * @param context the precision and rounding of each operation
+     * @return the result of the evaluated expression
+     * @throws Exception if the expression is incorrectly formatted
+     * @throws ArithmeticException if {@code context} is unlimited and a result can't be represented exactly
+     * @see HybridEvaluator
+     */
+    public BigDecimal evaluateHybrid(MathContext context) throws Exception {
+        return HybridEvaluator.evaluate(compile(), context);
+    }
+
+    /**
+     * Evaluates the expression in exact rational arithmetic, so divisions such as {@code 1/3} are
+     * kept as fractions instead of being rounded
+     * @return the exact result of the evaluated expression, which can be rounded to a decimal with
+     * {@link Fraction#toBigDecimal(MathContext)}
+     * @throws Exception if the expression is incorrectly formatted
+     * @see RationalEvaluator
+     */
+    public Fraction evaluateFraction() throws Exception {
+        return RationalEvaluator.evaluate(compile());
+    }
+
+    /**
+     * Evaluates the expression using {@code double} arithmetic, where values can be vectors
+     * written as {@code <a, b, c>}
+     * @return the result of the evaluated expression, which is a vector of one element if it is a scalar
+     * @throws Exception if the expression is incorrectly formatted
+     * @see VectorEvaluator
+     */
+    public double[] evaluateVector() throws Exception {
+        return VectorEvaluator.evaluate(compile());
+    }
+
+    /**
+     * Evaluates the expression using {@code double} arithmetic, which is much faster than
+     * {@link #evaluate()} but only keeps 15 to 16 significant digits
+     * @return the result of the evaluated expression
+     * @throws Exception if the expression is incorrectly formatted
+     * @see Program#evaluateDouble()
+     */
+    public double evaluateDouble() throws Exception {
+        return compile().evaluateDouble();
+    }
+
+    /**
+     * Compiles the expression into a reusable, optimized {@link Program}. The expression is only
+     * parsed the first time this is called after it has been changed, and not at all if the same
+     * text is already in the {@link ProgramCache#shared()} cache.
+     * <p>An {@link Expression} is meant to be edited and evaluated by one thread, but the program
+     * is immutable, so it can be shared by threads that evaluate it at the same time.
+     * @return the compiled program of the expression
+     * @throws Exception if the expression is incorrectly formatted
+     */
+    public Program compile() throws Exception {
+        return compile(ProgramCache.shared());
+    }
+
+    /**
+     * Compiles the expression, looking its text up in {@code cache} instead of the shared cache
+     * @param cache the cache of compiled programs to use
+     * @return the compiled program of the expression
+     * @throws Exception if the expression is incorrectly formatted
+     */
+    Program compile(ProgramCache cache) throws Exception {
+        final Program PROGRAM = tryCompile(cache);
+        if (PROGRAM == null) {throw new Exception(error.MESSAGE);}
+        return PROGRAM;
+    }
+
+    /**
+     * Compiles the expression without throwing. An invalid expression is only parsed once until
+     * it is changed, so checking it again costs no more than looking up a valid one.
+     * @param cache the cache of compiled programs to use
+     * @return the compiled program of the expression, or {@code null} if it is invalid, in which
+     * case {@code error} and {@code errorPosition} describe why
+     */
+    private Program tryCompile(ProgramCache cache) {
+        if (program == null && error == null) {
+            program = cache.get(EXPRESSION);
+            if (program == null) {
+                final Program PROGRAM = parse();
+                if (PROGRAM == null) {return null;}
+
+                program = Optimizer.optimize(PROGRAM);
+                cache.put(EXPRESSION, program);
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Checks whether the expression is valid without evaluating it or throwing. Malformed input is
+     * rejected with the kind and position of its first error, without the cost of an exception.
+     * @return a valid {@link Result}, or the error of the expression
+     * @see #compile()
+     */
+    public Result validate() {
+        return (tryCompile(ProgramCache.shared()) == null) ? Result.failure(error, errorPosition) : Result.valid();
+    }
+
+    /**
+     * Evaluates the expression without throwing, rounding every operation to {@link MathContext#DECIMAL128}
+     * @return the {@link Result} holding the value of the expression, or its error
+     * @see #evaluate()
+     */
+    public Result tryEvaluate() {
+        return tryEvaluate(MathContext.DECIMAL128);
+    }
+    /**
+     * Evaluates the expression without throwing, rounding every operation to {@code context}.
+     * Syntax errors are found without exceptions; an operation with no defined result, such as
+     * dividing by {@code 0}, is a {@link Result.Kind#UNDEFINED} result.
+     * @param context the precision and rounding of each operation
+     * @return the {@link Result} holding the value of the expression, or its error
+     * @see #evaluate(MathContext)
+     */
+    public Result tryEvaluate(MathContext context) {
+        return tryEvaluate(ProgramCache.shared(), context);
+    }
+    /** Evaluates the expression without throwing, looking its text up in {@code cache} */
+    Result tryEvaluate(ProgramCache cache, MathContext context) {
+        final Program PROGRAM = tryCompile(cache);
+        if (PROGRAM == null) {return Result.failure(error, errorPosition);}
+
+        try {
+            return Result.of(PROGRAM.evaluate(context));
+        } catch (ArithmeticException e) {
+            return Result.undefined(e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles {@code text} into a {@link Program} where every name that is not a function is a
+     * variable of the program, reading the tokens its editor already keeps instead of lexing it again
+     * @param text the text to compile
+     * @param tokens the token stream of {@code text}, which is up to date with it
+     * @return the compiled program of {@code text}
+     * @throws Exception if {@code text} is incorrectly formatted
+     * @see Formula#compile()
+     */
+    static Program compileVariables(CharSequence text, Tokens tokens) throws Exception {
+        final Expression PARSER = new Expression(); //only holds the error if the text is invalid
+        final Program PROGRAM = PARSER.parse(text, tokens, true);
+        if (PROGRAM == null) {throw new Exception(PARSER.error.MESSAGE);}
+        return Optimizer.optimize(PROGRAM);
     }
 }
\ No newline at end of file
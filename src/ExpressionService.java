@@ -0,0 +1,219 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates expressions, formulas and programs on virtual threads, with a cap on the number of
+ * jobs in flight at once. Submitting a job waits while the service is at its cap, so a producer
+ * can't queue more work than the service can keep up with, and every job runs on its own virtual
+ * thread as soon as it is accepted.
+ * <p>Results are given back through {@link CompletableFuture}s, or to a {@link Sink} for batches.
+ * Cancelling a future skips its job if it hasn't started, and cancelling the future of a batch
+ * stops the rest of the batch from being submitted. A job that has already started runs to the
+ * end, but its result is dropped.
+ * <p>Expressions are evaluated with {@link Expression#tryEvaluate(MathContext)}, so a malformed
+ * expression completes its future normally with the {@link Result} of its error, and any other
+ * error evaluating it is an {@link Result.Kind#UNDEFINED} result. One bad expression in a batch
+ * only affects its own result.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#tryEvaluate(MathContext)
+ */
+public final class ExpressionService implements AutoCloseable {
+    // -- Attributes -- \\
+    /** Receives the result of each expression of a batch as it finishes, so results can come in any order */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Accepts the result of an expression. It is called from many threads at once.
+         * @param index the position of the expression in the batch
+         * @param result the result of the expression
+         */
+        public abstract void accept(long index, Result result);
+    }
+
+    private final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore PERMITS; //One for each job that may be in flight
+    private final MathContext CONTEXT;
+
+    // -- Constructors -- \\
+    /**
+     * Creates an {@link ExpressionService} that rounds every operation to {@link MathContext#DECIMAL128}
+     * @param maxInFlight the most jobs that can be evaluated or waiting to be evaluated at once
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than {@code 1}
+     */
+    public ExpressionService(int maxInFlight) {
+        this(maxInFlight, MathContext.DECIMAL128);
+    }
+    /**
+     * Creates an {@link ExpressionService}
+     * @param maxInFlight the most jobs that can be evaluated or waiting to be evaluated at once
+     * @param context the precision and rounding of each operation
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than {@code 1}
+     */
+    public ExpressionService(int maxInFlight, MathContext context) {
+        if (maxInFlight < 1) {throw new IllegalArgumentException(String.format("Illegal maximum in flight: %d", maxInFlight));}
+        PERMITS = new Semaphore(maxInFlight);
+        CONTEXT = context;
+    }
+
+    // -- Methods -- \\
+    /**
+     * Runs {@code job} on a virtual thread once there is room for it
+     * @throws InterruptedException if the thread is interrupted while waiting for room
+     * @throws RejectedExecutionException if the service has been closed
+     */
+    private void execute(Runnable job) throws InterruptedException {
+        PERMITS.acquire();
+        try {
+            EXECUTOR.execute(() -> {
+                try {
+                    job.run();
+                } finally {
+                    PERMITS.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PERMITS.release();
+            throw e;
+        }
+    }
+
+    /** Runs {@code job} on a virtual thread once there is room, completing the future with its result */
+    private <T> CompletableFuture<T> submit(Supplier<T> job) throws InterruptedException {
+        final CompletableFuture<T> FUTURE = new CompletableFuture<>();
+        execute(() -> {
+            if (FUTURE.isDone()) return; //cancelled before it started
+
+            try {
+                FUTURE.complete(job.get());
+            } catch (Throwable e) {
+                FUTURE.completeExceptionally(e);
+            }
+        });
+        return FUTURE;
+    }
+
+    /**
+     * Evaluates an expression. The text is read before this returns, so {@code expression} can be
+     * changed as soon as it is submitted.
+     * @param expression the expression to evaluate, such as a {@link String} or an {@link Expression}
+     * @return a future of the {@link Result} of the expression, which holds its error if it is invalid
+     * @throws InterruptedException if the thread is interrupted while waiting for room
+     * @throws RejectedExecutionException if the service has been closed
+     */
+    public CompletableFuture<Result> submit(CharSequence expression) throws InterruptedException {
+        final String TEXT = expression.toString();
+        return submit(() -> evaluate(TEXT));
+    }
+
+    /**
+     * Evaluates an expression without throwing, so one bad expression can't fail the batch it is in
+     * @return the {@link Result} of the expression, which is {@link Result.Kind#UNDEFINED} if
+     * evaluating it threw an error that isn't a syntax error
+     */
+    private Result evaluate(String text) {
+        try {
+            return new Expression(text).tryEvaluate(CONTEXT);
+        } catch (RuntimeException e) {
+            return Result.undefined((e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Evaluates a program with the values of its variables
+     * @param program the program to evaluate
+     * @param values the values of the variables in slot order
+     * @return a future of the result, which completes exceptionally if the program has no defined result
+     * @throws InterruptedException if the thread is interrupted while waiting for room
+     * @throws RejectedExecutionException if the service has been closed
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see Program#evaluate(MathContext, BigDecimal...)
+     */
+    public CompletableFuture<BigDecimal> submit(Program program, BigDecimal... values) throws InterruptedException {
+        if (values.length < program.VARIABLES.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", program.VARIABLES[values.length]));
+        }
+        final BigDecimal[] VALUES = values.clone();
+        return submit(() -> program.evaluate(CONTEXT, VALUES));
+    }
+
+    /**
+     * Evaluates a formula with the values its variables have when it is submitted. The formula is
+     * compiled and its values are read before this returns, so it can be changed as soon as it is
+     * submitted.
+     * @param formula the formula to evaluate
+     * @return a future of the result, which completes exceptionally if the formula has no defined result
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     * @throws InterruptedException if the thread is interrupted while waiting for room
+     * @throws RejectedExecutionException if the service has been closed
+     * @see Formula#evaluate(MathContext)
+     */
+    public CompletableFuture<BigDecimal> submit(Formula formula) throws Exception {
+        final Program PROGRAM = formula.compile();
+        return submit(PROGRAM, formula.arguments(PROGRAM));
+    }
+
+    /**
+     * Evaluates a batch or stream of expressions, giving each result to {@code sink} as it
+     * finishes. The expressions are submitted from a virtual thread, so this returns at once, and
+     * the batch only reads as far ahead of the results as the cap on jobs in flight allows.
+     * @param expressions the expressions to evaluate, which are only iterated once
+     * @param sink what to give the result of each expression to, which must be thread-safe
+     * @return a future that completes once every result has been given to {@code sink}, completes
+     * exceptionally if reading {@code expressions} or {@code sink} throws, and stops the batch if it
+     * is cancelled
+     */
+    public CompletableFuture<Void> evaluateAll(Iterable<? extends CharSequence> expressions, Sink sink) {
+        final CompletableFuture<Void> DONE = new CompletableFuture<>();
+        final AtomicLong REMAINING = new AtomicLong(1); //the jobs left to finish, plus one until every job is submitted
+
+        EXECUTOR.execute(() -> {
+            try {
+                long index = 0;
+                for (CharSequence expression : expressions) {
+                    if (DONE.isDone()) break;
+
+                    final long INDEX = index++;
+                    final String TEXT = expression.toString();
+                    REMAINING.incrementAndGet();
+                    execute(() -> {
+                        try {
+                            if (!DONE.isDone()) {sink.accept(INDEX, evaluate(TEXT));}
+                        } catch (Throwable e) { //only the sink can throw, since the result of every expression is a Result
+                            DONE.completeExceptionally(e);
+                        } finally {
+                            if (REMAINING.decrementAndGet() == 0) {DONE.complete(null);}
+                        }
+                    });
+                }
+            } catch (Throwable e) {
+                DONE.completeExceptionally(e);
+            } finally {
+                if (REMAINING.decrementAndGet() == 0) {DONE.complete(null);}
+            }
+        });
+        return DONE;
+    }
+
+    /** @return the number of jobs that can be submitted before the service is at its cap */
+    public int available() {
+        return PERMITS.availablePermits();
+    }
+
+    /**
+     * Stops accepting jobs and waits for the jobs in flight to finish
+     * @see ExecutorService#close()
+     */
+    @Override
+    public void close() {
+        EXECUTOR.close();
+    }
+}
@@ -0,0 +1,286 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A shared store of compiled expressions in which every structurally identical subexpression is
+ * kept once, both within one program and across all the programs added to the store. Evaluating
+ * any number of the stored programs computes each distinct subexpression once, so formulas that
+ * repeat terms such as {@code (P/R*S)} share the work of computing them.
+ * <p>The operands of {@code +} and {@code *} are put in a canonical order, so {@code A*B} and
+ * {@code B*A} are stored as the same subexpression. Both operations are commutative in
+ * {@link BigDecimal} arithmetic, so this never changes a result. Calls to functions that are not
+ * {@linkplain Functions#isPure(int) pure} are never shared.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Program
+ */
+public final class ExpressionStore {
+    // -- Attributes -- \\
+    /** The identity of a node, made of its opcode, its operand and the ids of its operands */
+    private static final class Key {
+        final byte OPCODE;
+        final int OPERAND;
+        final BigDecimal CONSTANT;
+        final int[] OPERANDS;
+
+        Key(byte opcode, int operand, BigDecimal constant, int... operands) {
+            OPCODE = opcode;
+            OPERAND = operand;
+            CONSTANT = constant;
+            OPERANDS = operands;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) return false;
+            Key key = (Key)object;
+            return OPCODE == key.OPCODE && OPERAND == key.OPERAND && Arrays.equals(OPERANDS, key.OPERANDS) && Objects.equals(CONSTANT, key.CONSTANT);
+        }
+
+        @Override
+        public int hashCode() {
+            return (OPCODE*31 + OPERAND)*31 + Arrays.hashCode(OPERANDS) + Objects.hashCode(CONSTANT)*961;
+        }
+    }
+
+    /** The id of every node in the store. Nodes are only added after their operands, so ids are in evaluation order. */
+    private final Map<Key, Integer> IDS = new HashMap<>();
+    private final List<Key> NODES = new ArrayList<>();
+    /** The variables of every stored program, indexed by the operand of their nodes */
+    private final List<String> VARIABLES = new ArrayList<>();
+    /** The root node id of every program added to the store, in the order they were added */
+    private final List<Integer> ROOTS = new ArrayList<>();
+
+    // -- Methods -- \\
+    private int intern(byte opcode, int operand, BigDecimal constant, int... operands) {
+        if ((opcode == Program.OPERATOR) && (operand == '+' || operand == '*') && operands[0] > operands[1]) { //commutative operands in id order
+            operands = new int[] {operands[1], operands[0]};
+        }
+
+        Key key = new Key(opcode, operand, constant, operands);
+        if (opcode == Program.FUNCTION && !Functions.isPure(operand)) { //every call of an impure function is its own node
+            NODES.add(key);
+            return NODES.size()-1;
+        }
+
+        Integer id = IDS.get(key);
+        if (id == null) {
+            id = NODES.size();
+            NODES.add(key);
+            IDS.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds the program to the store, sharing every subexpression the store already contains
+     * @param program the program to add
+     * @return the id of the program in the store
+     * @throws IllegalArgumentException if the program has a vector, which has no scalar value to store
+     */
+    public synchronized int add(Program program) {
+        for (byte opcode : program.CODE) {
+            if (opcode == Program.VECTOR) {throw new IllegalArgumentException("Vectors can't be stored");}
+        }
+        final int[] STACK = new int[program.DEPTH];
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            byte opcode = program.CODE[index];
+            int operand = program.OPERANDS[index];
+
+            switch (opcode) {
+                case Program.NUMBER:
+                    STACK[++top] = intern(opcode, 0, program.CONSTANTS[operand]);
+                    break;
+                case Program.VARIABLE:
+                    String variable = program.VARIABLES[operand];
+                    int slot = VARIABLES.indexOf(variable);
+                    if (slot == -1) {
+                        slot = VARIABLES.size();
+                        VARIABLES.add(variable);
+                    }
+                    STACK[++top] = intern(opcode, slot, null);
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    STACK[top] = intern(opcode, operand, null, STACK[top], STACK[top+1]);
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(operand);
+                    top -= ARITY-1;
+                    STACK[top] = intern(opcode, operand, null, Arrays.copyOfRange(STACK, top, top+ARITY));
+                    break;
+                default:
+                    STACK[top] = intern(opcode, operand, null, STACK[top]);
+            }
+        }
+
+        ROOTS.add(STACK[0]);
+        return ROOTS.size()-1;
+    }
+    /**
+     * Compiles the expression and adds it to the store
+     * @param expression the expression to add
+     * @return the id of the expression in the store
+     * @throws Exception if the expression is incorrectly formatted
+     */
+    public int add(Expression expression) throws Exception {
+        return add(expression.compile());
+    }
+    /**
+     * Compiles the formula and adds it to the store
+     * @param formula the formula to add
+     * @return the id of the formula in the store
+     * @throws Exception if the formula is incorrectly formatted
+     */
+    public int add(Formula formula) throws Exception {
+        return add(formula.compile());
+    }
+
+    /** @return the number of programs in the store */
+    public synchronized int size() {
+        return ROOTS.size();
+    }
+
+    /** @return the number of distinct subexpressions in the store */
+    public synchronized int nodes() {
+        return NODES.size();
+    }
+
+    /** @return a read-only {@link List} of the variables of every program in the store */
+    public synchronized List<String> variables() {
+        return Collections.unmodifiableList(new ArrayList<>(VARIABLES));
+    }
+
+    /**
+     * Marks every node the programs {@code ids} depend on
+     * @return the nodes that need to be evaluated, indexed by node id
+     */
+    private boolean[] reachable(int[] ids) {
+        final boolean[] NEEDED = new boolean[NODES.size()];
+        for (int id : ids) {NEEDED[ROOTS.get(id)] = true;}
+
+        for (int node = NEEDED.length-1; node > -1; node--) { //operands always have lower ids than their nodes
+            if (!NEEDED[node]) {continue;}
+
+            for (int operand : NODES.get(node).OPERANDS) {NEEDED[operand] = true;}
+        }
+        return NEEDED;
+    }
+
+    private String checkVariable(Map<String, ?> values, int slot) {
+        String variable = VARIABLES.get(slot);
+        if (values.get(variable) == null) throw new UnknownVariableException(String.format("Variable '%s' was not given a value", variable));
+        return variable;
+    }
+
+    /**
+     * Evaluates the programs {@code ids}, computing each subexpression they share only once
+     * @param values the values of the variables of the programs
+     * @param ids the ids of the programs to evaluate
+     * @return the result of each program, in the same order as {@code ids}
+     * @throws ArithmeticException if an operation has no defined result
+     * @throws UnknownVariableException if a variable of the programs is not in {@code values}
+     */
+    public synchronized BigDecimal[] evaluate(Map<String, BigDecimal> values, int... ids) throws ArithmeticException {
+        return evaluate(MathContext.DECIMAL128, values, ids);
+    }
+    /**
+     * Evaluates the programs {@code ids}, computing each subexpression they share only once and
+     * rounding every operation to {@code context}
+     * @param context the precision and rounding of each operation
+     * @param values the values of the variables of the programs
+     * @param ids the ids of the programs to evaluate
+     * @return the result of each program, in the same order as {@code ids}
+     * @throws ArithmeticException if an operation has no defined result, or if {@code context} is
+     * unlimited and a result can't be represented exactly
+     * @throws UnknownVariableException if a variable of the programs is not in {@code values}
+     * @see Program#evaluate(MathContext, BigDecimal...)
+     */
+    public synchronized BigDecimal[] evaluate(MathContext context, Map<String, BigDecimal> values, int... ids) throws ArithmeticException {
+        final boolean[] NEEDED = reachable(ids);
+        final BigDecimal[] RESULTS = new BigDecimal[NEEDED.length];
+
+        for (int node = 0; node < NEEDED.length; node++) {
+            if (!NEEDED[node]) {continue;}
+            Key key = NODES.get(node);
+
+            switch (key.OPCODE) {
+                case Program.NUMBER: RESULTS[node] = key.CONSTANT; break;
+                case Program.VARIABLE: RESULTS[node] = values.get(checkVariable(values, key.OPERAND)); break;
+                case Program.NEGATE: RESULTS[node] = RESULTS[key.OPERANDS[0]].negate(); break;
+                case Program.OPERATOR: RESULTS[node] = Expression.operation(RESULTS[key.OPERANDS[0]], RESULTS[key.OPERANDS[1]], (char)key.OPERAND, context); break;
+                case Program.FUNCTION:
+                    final BigDecimal[] ARGUMENTS = new BigDecimal[key.OPERANDS.length];
+                    for (int index = 0; index < ARGUMENTS.length; index++) {ARGUMENTS[index] = RESULTS[key.OPERANDS[index]];}
+                    RESULTS[node] = Functions.apply(key.OPERAND, context, ARGUMENTS);
+                    break;
+            }
+        }
+
+        final BigDecimal[] PROGRAMS = new BigDecimal[ids.length];
+        for (int index = 0; index < ids.length; index++) {
+            PROGRAMS[index] = RESULTS[ROOTS.get(ids[index])].round(context); //as Program#evaluate rounds its result
+        }
+        return PROGRAMS;
+    }
+
+    /**
+     * Evaluates the programs {@code ids} using {@code double} arithmetic, computing each
+     * subexpression they share only once
+     * @param values the values of the variables of the programs
+     * @param ids the ids of the programs to evaluate
+     * @return the result of each program, in the same order as {@code ids}
+     * @throws ArithmeticException if a program divides by {@code 0}
+     * @throws UnknownVariableException if a variable of the programs is not in {@code values}
+     * @see Program#evaluateDouble(double...)
+     */
+    public synchronized double[] evaluateDouble(Map<String, Double> values, int... ids) throws ArithmeticException {
+        final boolean[] NEEDED = reachable(ids);
+        final double[] RESULTS = new double[NEEDED.length];
+
+        for (int node = 0; node < NEEDED.length; node++) {
+            if (!NEEDED[node]) {continue;}
+            Key key = NODES.get(node);
+
+            switch (key.OPCODE) {
+                case Program.NUMBER: RESULTS[node] = key.CONSTANT.doubleValue(); break;
+                case Program.VARIABLE: RESULTS[node] = values.get(checkVariable(values, key.OPERAND)); break;
+                case Program.NEGATE: RESULTS[node] = -RESULTS[key.OPERANDS[0]]; break;
+                case Program.OPERATOR: RESULTS[node] = Expression.operation(RESULTS[key.OPERANDS[0]], RESULTS[key.OPERANDS[1]], (char)key.OPERAND); break;
+                case Program.FUNCTION:
+                    final double[] ARGUMENTS = new double[key.OPERANDS.length];
+                    for (int index = 0; index < ARGUMENTS.length; index++) {ARGUMENTS[index] = RESULTS[key.OPERANDS[index]];}
+                    RESULTS[node] = Functions.apply(key.OPERAND, ARGUMENTS);
+                    break;
+            }
+        }
+
+        final double[] PROGRAMS = new double[ids.length];
+        for (int index = 0; index < ids.length; index++) {
+            PROGRAMS[index] = RESULTS[ROOTS.get(ids[index])];
+        }
+        return PROGRAMS;
+    }
+
+    /**
+     * Evaluates every program in the store, computing each shared subexpression only once
+     * @param values the values of the variables of the programs
+     * @return the result of each program, in the order they were added
+     * @throws ArithmeticException if an operation has no defined result
+     * @throws UnknownVariableException if a variable of the programs is not in {@code values}
+     */
+    public synchronized BigDecimal[] evaluate(Map<String, BigDecimal> values) throws ArithmeticException {
+        final int[] ALL = new int[ROOTS.size()];
+        Arrays.setAll(ALL, index -> index);
+        return evaluate(values, ALL);
+    }
+}
@@ -0,0 +1,250 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes exact factorials with the prime swing algorithm. {@code n!} is split into
+ * {@code (n/2)!^2} times the swinging factorial of {@code n}, which is the product of a few prime
+ * powers, so a factorial costs a handful of large multiplications instead of {@code n} small ones.
+ * The prime powers are multiplied in a balanced product tree so the operands of each
+ * multiplication are about the same size, and large trees are split across cores.
+ * <p>The factorials of small numbers are cached when the class is loaded. A factorial of more than
+ * {@link Bitwise#MAX_DIGITS} digits is too large to work out exactly, so it is only computed
+ * rounded, from Stirling's series for {@code ln(n!)}.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#FUNCTIONS
+ */
+abstract class Factorial {
+    // -- Attributes -- \\
+    private static final int CACHED = 128; //The factorials from 0! up to this are cached
+    private static final int LEAF = 32; //The most factors a product tree node multiplies in a loop
+    private static final int PARALLEL = 1024; //The fewest factors a product tree node splits across cores
+    private static final int PARALLEL_BITS = 1 << 16; //The fewest bits of a multiplication that is split across cores
+    private static final int GUARD = 10; //The extra digits a rounded factorial is computed with
+
+    private static final BigInteger[] CACHE = new BigInteger[CACHED];
+    private static final double[] DOUBLE_CACHE = new double[171]; //Every factorial that is finite as a double
+
+    static {
+        BigInteger factorial = BigInteger.ONE;
+        for (int number = 0; number < DOUBLE_CACHE.length; number++) {
+            if (number > 0) {factorial = factorial.multiply(BigInteger.valueOf(number));}
+            if (number < CACHED) {CACHE[number] = factorial;}
+            DOUBLE_CACHE[number] = factorial.doubleValue(); //rounded once from the exact value, so it is the nearest double
+        }
+    }
+
+    /** Multiplies a range of factors as a balanced product tree, forking the halves of large ranges */
+    private static final class Product extends RecursiveTask<BigInteger> {
+        private static final long serialVersionUID = -4185297446163927208L;
+        private final long[] FACTORS;
+        private final int FROM;
+        private final int TO;
+
+        Product(long[] factors, int from, int to) {
+            FACTORS = factors;
+            FROM = from;
+            TO = to;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (TO - FROM <= LEAF) {
+                BigInteger product = BigInteger.ONE;
+                long partial = 1;
+                for (int index = FROM; index < TO; index++) { //multiply in longs until the next factor could overflow
+                    if (Long.numberOfLeadingZeros(partial) + Long.numberOfLeadingZeros(FACTORS[index]) < 65) {
+                        product = product.multiply(BigInteger.valueOf(partial));
+                        partial = 1;
+                    }
+                    partial *= FACTORS[index];
+                }
+                return product.multiply(BigInteger.valueOf(partial));
+            }
+
+            final int MIDDLE = (FROM + TO) >>> 1;
+            final Product LOW = new Product(FACTORS, FROM, MIDDLE);
+            final Product HIGH = new Product(FACTORS, MIDDLE, TO);
+
+            if (TO - FROM < PARALLEL) {return multiply(LOW.compute(), HIGH.compute());}
+            HIGH.fork();
+            return multiply(LOW.compute(), HIGH.join());
+        }
+    }
+
+    // -- Methods -- \\
+    private static BigInteger multiply(BigInteger first, BigInteger second) {
+        return (Math.min(first.bitLength(), second.bitLength()) < PARALLEL_BITS) ? first.multiply(second) : first.parallelMultiply(second);
+    }
+
+    /**
+     * Calculates the exact factorial of {@code number}
+     * @param number the number to calculate the factorial of
+     * @return {@code number!}
+     * @throws ArithmeticException if {@code number} is negative, or its factorial has more than
+     * {@link Bitwise#MAX_DIGITS} digits
+     */
+    static BigInteger of(int number) throws ArithmeticException {
+        if (number < 0) {throw new ArithmeticException("Factorial of a negative number");}
+        if (number < CACHED) {return CACHE[number];}
+        if (digits(number) > Bitwise.MAX_DIGITS) {throw new ArithmeticException("Factorial is too large");}
+
+        final boolean[] COMPOSITE = sieve(number);
+        return oddFactorial(number, COMPOSITE).shiftLeft(number - Integer.bitCount(number)); //n! has n - bitCount(n) factors of 2
+    }
+
+    /**
+     * Calculates the factorial of {@code number} rounded to {@code context}, which is exact if it
+     * has at most {@link Bitwise#MAX_DIGITS} digits and computed from Stirling's series otherwise
+     * @param number the number to calculate the factorial of
+     * @param context the precision and rounding of the result
+     * @return {@code number!} rounded to {@code context}
+     * @throws ArithmeticException if {@code number} is negative, or its factorial is too large to
+     * be exact when {@code context} is unlimited or too large for a {@link BigDecimal}
+     */
+    static BigDecimal of(int number, MathContext context) throws ArithmeticException {
+        if (number < 0) {throw new ArithmeticException("Factorial of a negative number");}
+        if (number < CACHED || digits(number) <= Bitwise.MAX_DIGITS) {return new BigDecimal(of(number), context);}
+        if (context.getPrecision() == 0) {throw new ArithmeticException("Factorial is too large");}
+        return stirling(number, context);
+    }
+
+    /** @return an estimate of the number of digits of {@code number!} */
+    private static double digits(int number) {
+        return Utility.logGamma(number + 1.0) / Math.log(10) + 1;
+    }
+
+    /**
+     * Calculates {@code number!} as {@code e^ln(number!)}, where
+     * {@code ln(n!) = (n+1/2)*ln(n) - n + ln(2*pi)/2 + sum(B2k / (2k*(2k-1)*n^(2k-1)))}
+     * @throws ArithmeticException if the result is too large for a {@link BigDecimal}
+     */
+    private static BigDecimal stirling(int number, MathContext context) throws ArithmeticException {
+        final double LOG = Utility.logGamma(number + 1.0);
+        if (LOG / Math.log(10) >= Integer.MAX_VALUE) {throw new ArithmeticException("Factorial is too large");}
+
+        //the absolute error of ln(n!) is the relative error of n!, so keep a digit for each of its whole digits
+        final MathContext WORKING = new MathContext(context.getPrecision() + GUARD + (int)Math.ceil(Math.log10(LOG)), RoundingMode.HALF_EVEN);
+        final BigDecimal EPSILON = BigDecimal.ONE.movePointLeft(context.getPrecision() + GUARD);
+        final BigDecimal NUMBER = BigDecimal.valueOf(number);
+        final BigDecimal SQUARE = NUMBER.multiply(NUMBER);
+
+        BigDecimal sum = NUMBER.add(BigDecimal.valueOf(0.5)).multiply(Power.ln(NUMBER, WORKING), WORKING).subtract(NUMBER, WORKING);
+        sum = sum.add(Power.ln(pi(WORKING).multiply(BigDecimal.valueOf(2)), WORKING).divide(BigDecimal.valueOf(2), WORKING), WORKING);
+
+        //the terms shrink by about n^2 each until 2k is near 2*pi*n, far past any precision a rounded factorial is asked for
+        final List<Fraction> BERNOULLI = new ArrayList<>(List.of(Fraction.ONE));
+        BigDecimal power = NUMBER; //n^(2k-1)
+        for (long k = 2; ; k += 2) {
+            while (BERNOULLI.size() <= k) {BERNOULLI.add(bernoulli(BERNOULLI));}
+            final Fraction B = BERNOULLI.get((int)k);
+            final BigDecimal TERM = new BigDecimal(B.numerator()).divide(power.multiply(new BigDecimal(B.denominator().multiply(BigInteger.valueOf(k*(k-1))))), WORKING);
+            sum = sum.add(TERM, WORKING);
+            if (TERM.abs().compareTo(EPSILON) < 0) {break;}
+            power = power.multiply(SQUARE);
+        }
+        return Power.exp(sum, WORKING).round(context);
+    }
+
+    /**
+     * Calculates the next Bernoulli number from the ones before it, with
+     * {@code B(m) = -sum(C(m+1, j)*B(j) for j < m) / (m+1)}
+     * @param previous the Bernoulli numbers from {@code B(0)} up to {@code B(m-1)}
+     * @return {@code B(m)}
+     */
+    private static Fraction bernoulli(List<Fraction> previous) {
+        final int M = previous.size();
+        BigInteger binomial = BigInteger.ONE; //C(m+1, j)
+        Fraction sum = Fraction.ZERO;
+
+        for (int j = 0; j < M; j++) {
+            sum = sum.add(previous.get(j).multiply(Fraction.of(binomial, BigInteger.ONE)));
+            binomial = binomial.multiply(BigInteger.valueOf(M+1 - j)).divide(BigInteger.valueOf(j+1));
+        }
+        return sum.multiply(Fraction.of(-1, M+1));
+    }
+
+    /** @return pi to the precision of {@code context}, from Machin's formula {@code pi = 16*arctan(1/5) - 4*arctan(1/239)} */
+    private static BigDecimal pi(MathContext context) {
+        return arctanInverse(5, context).multiply(BigDecimal.valueOf(16)).subtract(arctanInverse(239, context).multiply(BigDecimal.valueOf(4)), context);
+    }
+
+    /** @return {@code arctan(1/number)} to the precision of {@code context}, from its Taylor series */
+    private static BigDecimal arctanInverse(int number, MathContext context) {
+        final BigDecimal EPSILON = BigDecimal.ONE.movePointLeft(context.getPrecision() + 1);
+        final BigDecimal SQUARE = BigDecimal.valueOf((long)number*number);
+        BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(number), context); //1/number^(2i+1)
+        BigDecimal sum = power;
+
+        for (int index = 1; power.compareTo(EPSILON) > 0; index++) {
+            power = power.divide(SQUARE, context);
+            final BigDecimal TERM = power.divide(BigDecimal.valueOf(2*index + 1), context);
+            sum = ((index & 1) == 1) ? sum.subtract(TERM, context) : sum.add(TERM, context);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the factorial of {@code number} in {@code double} arithmetic
+     * @param number the number to calculate the factorial of
+     * @return {@code number!}, {@link Double#POSITIVE_INFINITY} if it is too large for a {@code double},
+     * or {@link Double#NaN} if {@code number} is negative
+     */
+    static double ofDouble(long number) {
+        if (number < 0) return Double.NaN;
+        return (number < DOUBLE_CACHE.length) ? DOUBLE_CACHE[(int)number] : Double.POSITIVE_INFINITY;
+    }
+
+    /** @return whether each number up to {@code limit} is composite, indexed by the number */
+    private static boolean[] sieve(int limit) {
+        final boolean[] COMPOSITE = new boolean[limit+1];
+        for (long prime = 3; prime*prime <= limit; prime += 2) {
+            if (COMPOSITE[(int)prime]) {continue;}
+            for (long multiple = prime*prime; multiple <= limit; multiple += 2*prime) {COMPOSITE[(int)multiple] = true;}
+        }
+        return COMPOSITE;
+    }
+
+    /** @return the product of the odd factors of {@code number!} */
+    private static BigInteger oddFactorial(int number, boolean[] composite) {
+        if (number < CACHED) {return CACHE[number].shiftRight(number - Integer.bitCount(number));}
+
+        final BigInteger HALF = oddFactorial(number/2, composite);
+        return multiply(multiply(HALF, HALF), swing(number, composite));
+    }
+
+    /**
+     * Calculates the odd part of the swinging factorial {@code number!/(number/2)!^2} from its
+     * prime factorization
+     */
+    private static BigInteger swing(int number, boolean[] composite) {
+        final long[] FACTORS = new long[number/2 + 1];
+        final int ROOT = (int)Math.sqrt(number);
+        int count = 0;
+
+        for (int prime = 3; prime <= number; prime += 2) {
+            if (composite[prime]) {continue;}
+
+            if (prime > number/2) { //every prime above n/2 divides the swing exactly once
+                FACTORS[count++] = prime;
+            } else if (prime > ROOT) { //a prime above the root divides it at most once
+                if (((number/prime) & 1) == 1) {FACTORS[count++] = prime;}
+            } else {
+                long power = 1;
+                for (int quotient = number/prime; quotient > 0; quotient /= prime) {
+                    if ((quotient & 1) == 1) {power *= prime;}
+                }
+                if (power > 1) {FACTORS[count++] = power;}
+            }
+        }
+
+        final Product PRODUCT = new Product(FACTORS, 0, count);
+        return (count < PARALLEL) ? PRODUCT.compute() : ForkJoinPool.commonPool().invoke(PRODUCT);
+    }
+}
@@ -1,3 +1,5 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -20,6 +22,32 @@ public class Formula implements Evaluator {
     /** A read-only copy of the {@code VARIABLES} set that also reflects changes made to {@code VARIABLES} */
     private final Set<String> READONLY_VARIABLES = Collections.unmodifiableSet(VARIABLES);
 
+    /** The token stream of the formula, updated as it is edited */
+    private final Tokens TOKENS = new Tokens(true);
+    /** The number of times each name occurs in the formula */
+    private final Map<String, Integer> OCCURRENCES = new HashMap<>();
+    /** Keeps {@code VARIABLES} and {@code VALUES} in step with the names an edit adds and removes */
+    private final Tokens.Listener NAMES = new Tokens.Listener() {
+        @Override
+        public void added(String name) {
+            if (OCCURRENCES.merge(name, 1, Integer::sum) == 1) {
+                VARIABLES.add(name);
+                VALUES.put(name, null);
+            }
+        }
+        @Override
+        public void removed(String name) {
+            if (OCCURRENCES.merge(name, -1, Integer::sum) == 0) {
+                OCCURRENCES.remove(name);
+                VARIABLES.remove(name);
+                VALUES.remove(name);
+            }
+        }
+    };
+
+    /** The compiled formula, or {@code null} if the formula changed since it was last compiled */
+    private Program program;
+
     // -- Constructors -- \\
     /**Creates an empty {@link Formula} object*/
     public Formula() {}
@@ -50,32 +78,13 @@ public class Formula implements Evaluator {
     }
 
     /**
-     * Updates the {@code variables} array and the {@code VALUES} map to reflect the
-     * changes to the formula. They will only contain variables the formula contains.
+     * Updates the token stream, the {@code VARIABLES} set and the {@code VALUES} map after the
+     * characters from {@code start} to {@code end} were replaced with {@code length} characters.
+     * Only the tokens around the edit are re-lexed, and only the names they contain are counted.
      */
-    private void update() {
-        { //remake the variables array
-            String[] variables = FORMULA.toString().split("(?<=[a-zA-Z])[^a-zA-Z]+(?=[a-zA-Z])"); //split the string at all non-alphabet characters, except at the ends
-            final int LENGTH = variables.length;
-
-            //removes any non-alphabet characters in the first and last elements of the array
-            if (LENGTH > 0) variables[0] = variables[0].replaceAll("[^a-zA-Z]+", "");
-            if (LENGTH > 1) variables[LENGTH-1] = variables[LENGTH-1].replaceAll("[^a-zA-Z]+", "");
-
-            VARIABLES.clear();
-            Collections.addAll(VARIABLES, variables);
-        }
-        { //redefine the variables dictionary
-            List<String> variables = new ArrayList<>(VARIABLES);
-
-            for (String variable : VALUES.keySet()) { //remove the variable if it is no longer in the algorithm
-                if (!variables.contains(variable)) VALUES.remove(variable);
-                variables.remove(variable); //remove variable from the list
-            }
-            for (String variable : variables) { //put all the new variables in the dictionary
-                VALUES.put(variable, null);
-            }
-        }
+    private void update(int start, int end, int length) {
+        program = null;
+        TOKENS.edit(FORMULA, start, end, length, NAMES);
     }
 
     /**
@@ -91,70 +100,78 @@ public class Formula implements Evaluator {
     @Override
     public void set(CharSequence seq) {
         if (seq.toString().contentEquals(FORMULA)) return; //ignore the call if there's no difference between the formula and seq
-        FORMULA.replace(0, FORMULA.length(), seq.toString());
-        update();
+        final int LENGTH = FORMULA.length();
+        FORMULA.replace(0, LENGTH, seq.toString());
+        update(0, LENGTH, FORMULA.length());
     }
 
     @Override
     public void clear() {
         if (FORMULA.isEmpty()) return; //ignore the call if the formula contains no characters
-        FORMULA.delete(0, FORMULA.length());
-        update();
+        final int LENGTH = FORMULA.length();
+        FORMULA.delete(0, LENGTH);
+        update(0, LENGTH, 0);
     }
 
     @Override
     public void add(char ch) {
         FORMULA.append(ch);
-        update();
+        update(FORMULA.length()-1, FORMULA.length()-1, 1);
     }
     @Override
     public void add(CharSequence seq) {
+        final int LENGTH = FORMULA.length();
         FORMULA.append(seq);
-        update();
+        update(LENGTH, LENGTH, FORMULA.length()-LENGTH);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void add(int index, char ch) {
         FORMULA.insert(index, ch);
-        update();
+        update(index, index, 1);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void add(int index, CharSequence seq) {
+        final int LENGTH = FORMULA.length();
         FORMULA.insert(index, seq);
-        update();
+        update(index, index, FORMULA.length()-LENGTH);
     }
 
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove() {
-        FORMULA.deleteCharAt(FORMULA.length()-1);
-        update();
+        final int LENGTH = FORMULA.length();
+        FORMULA.deleteCharAt(LENGTH-1);
+        update(LENGTH-1, LENGTH, 0);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove(int index) {
         FORMULA.deleteCharAt(index);
-        update();
+        update(index, index+1, 0);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void remove(int start, int end) {
+        final int LENGTH = FORMULA.length();
         FORMULA.delete(start, end);
-        update();
+        update(start, start + LENGTH-FORMULA.length(), 0);
     }
 
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void replace(int index, char ch) {
+        final int LENGTH = FORMULA.length();
         FORMULA.replace(index, index+1, ""+ch);
-        update();
+        update(index, Math.min(index+1, LENGTH), 1);
     }
     /** @throws StringIndexOutOfBoundsException {@inheritDoc} */
     @Override
     public void replace(int start, int end, CharSequence seq) {
+        final int LENGTH = FORMULA.length();
         FORMULA.replace(start, end, seq.toString());
-        update();
+        update(start, Math.min(end, LENGTH), seq.length());
     }
 
     @Override
@@ -270,4 +287,201 @@ public class Formula implements Evaluator {
         }
         return EXPRESSION;
     }
+
+    /**
+     * Compiles the formula into a reusable {@link Program} whose variables are slots that are
+     * given values when it is evaluated. The formula is only parsed the first time this is
+     * called after it has been changed, from the token stream its edits already keep up to date.
+     * @return the compiled program of the formula
+     * @throws Exception if the formula is incorrectly formatted
+     * @see Program#variables()
+     */
+    public Program compile() throws Exception {
+        if (program == null) {program = Expression.compileVariables(FORMULA, TOKENS);}
+        return program;
+    }
+
+    /**
+     * Compiles the formula with the current values of {@code constants} folded into the program,
+     * so only the parts of the formula that depend on the other variables are left to evaluate.
+     * The program does not reflect later changes to the values of {@code constants}.
+     * @param constants the defined variables to treat as constants
+     * @return the compiled program of the formula, whose slots are the remaining variables
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable in {@code constants} hasn't been defined
+     * @see #compile()
+     */
+    public Program compile(Set<String> constants) throws Exception {
+        final Map<String, BigDecimal> CONSTANTS = new HashMap<>();
+        for (String variable : constants) {
+            if (!containsVariable(variable)) throw new UnknownVariableException(String.format("Variable '%s' was not found in the formula", variable));
+            CONSTANTS.put(variable, decimalValue(variable));
+        }
+        return Optimizer.optimize(compile(), CONSTANTS);
+    }
+
+    /**
+     * Gets the value of {@code variable} as a {@link BigDecimal}
+     * @param variable the name of the variable
+     * @return the value of the variable
+     * @throws UnknownVariableException if {@code variable} hasn't been defined
+     * @throws NumberFormatException if the value of {@code variable} is not a number
+     */
+    private BigDecimal decimalValue(String variable) {
+        Object value = VALUES.get(variable);
+
+        if (value == null) throw new UnknownVariableException(String.format("Variable '%s' has not been defined", variable));
+        if (value instanceof BigDecimal) return (BigDecimal)value;
+        return new BigDecimal(value.toString());
+    }
+
+    /**
+     * Evaluates the compiled formula with the defined variable values, without building an
+     * {@link Expression} string
+     * @return the result of the evaluated formula
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     */
+    public BigDecimal evaluate() throws Exception {
+        return evaluate(MathContext.DECIMAL128);
+    }
+
+    /**
+     * Evaluates the compiled formula with the defined variable values, rounding every operation
+     * to {@code context}
+     * @param context the precision and rounding of each operation
+     * @return the result of the evaluated formula
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     * @throws ArithmeticException if {@code context} is unlimited and a result can't be represented exactly
+     * @see Expression#evaluate(MathContext)
+     */
+    public BigDecimal evaluate(MathContext context) throws Exception {
+        final Program PROGRAM = compile();
+        return PROGRAM.evaluate(context, arguments(PROGRAM));
+    }
+
+    /**
+     * Gets the defined values of the variables of {@code program}
+     * @param program the compiled formula
+     * @return the values of the variables in slot order
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     */
+    BigDecimal[] arguments(Program program) {
+        final BigDecimal[] ARGUMENTS = new BigDecimal[program.VARIABLES.length];
+
+        for (int slot = 0; slot < ARGUMENTS.length; slot++) {
+            ARGUMENTS[slot] = decimalValue(program.VARIABLES[slot]);
+        }
+        return ARGUMENTS;
+    }
+
+    /**
+     * Evaluates the compiled formula with the defined variable values using {@code double}
+     * arithmetic
+     * @return the result of the evaluated formula
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     * @see Program#evaluateDouble(double...)
+     */
+    public double evaluateDouble() throws Exception {
+        final Program PROGRAM = compile();
+        final double[] ARGUMENTS = new double[PROGRAM.VARIABLES.length];
+
+        for (int slot = 0; slot < ARGUMENTS.length; slot++) {
+            ARGUMENTS[slot] = decimalValue(PROGRAM.VARIABLES[slot]).doubleValue();
+        }
+        return PROGRAM.evaluateDouble(ARGUMENTS);
+    }
+
+    /**
+     * Evaluates the compiled formula with the defined variable values using {@code double}
+     * arithmetic, where values can be vectors. A variable whose value is a {@code double[]} is a
+     * vector, and any other value is a scalar.
+     * @return the result of the evaluated formula, which is a vector of one element if it is a scalar
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     * @see VectorEvaluator#evaluate(Program, double[]...)
+     */
+    public double[] evaluateVector() throws Exception {
+        final Program PROGRAM = compile();
+        final double[][] ARGUMENTS = new double[PROGRAM.VARIABLES.length][];
+
+        for (int slot = 0; slot < ARGUMENTS.length; slot++) {
+            final Object VALUE = VALUES.get(PROGRAM.VARIABLES[slot]);
+            ARGUMENTS[slot] = (VALUE instanceof double[]) ? (double[])VALUE : new double[] {decimalValue(PROGRAM.VARIABLES[slot]).doubleValue()};
+        }
+        return VectorEvaluator.evaluate(PROGRAM, ARGUMENTS);
+    }
+
+    /**
+     * Evaluates the compiled formula with the defined variable values using {@code double}
+     * arithmetic, together with its partial derivative by each variable in the same pass
+     * @param gradient where to put the partial derivative of the result by each variable of the formula
+     * @return the result of the evaluated formula
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula hasn't been defined
+     * @see Differentiator#evaluate(Program, double[], double...)
+     */
+    public double evaluateGradient(Map<String, Double> gradient) throws Exception {
+        final Program PROGRAM = compile();
+        final double[] ARGUMENTS = new double[PROGRAM.VARIABLES.length];
+        final double[] DERIVATIVES = new double[ARGUMENTS.length];
+
+        for (int slot = 0; slot < ARGUMENTS.length; slot++) {
+            ARGUMENTS[slot] = decimalValue(PROGRAM.VARIABLES[slot]).doubleValue();
+        }
+        final double RESULT = Differentiator.evaluate(PROGRAM, DERIVATIVES, ARGUMENTS);
+
+        for (int slot = 0; slot < DERIVATIVES.length; slot++) {
+            gradient.put(PROGRAM.VARIABLES[slot], DERIVATIVES[slot]);
+        }
+        return RESULT;
+    }
+
+    /**
+     * Finds a value of {@code variable} that makes the formula equal {@code target}, given the
+     * defined values of the other variables. The other variables are folded into a compiled
+     * program, which is solved with Newton's method and Brent's method in {@code double}
+     * arithmetic without building any expression text. The search starts from the value of
+     * {@code variable} if it is defined, and from {@code 0} otherwise. The value of
+     * {@code variable} is not changed.
+     * @param variable the variable to solve for
+     * @param target the value the formula should equal
+     * @return the value of {@code variable} that is found to solve the equation
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if {@code variable} is not in the formula, or another variable
+     * hasn't been defined
+     * @throws ArithmeticException if no solution is found
+     * @see Solver
+     */
+    public double solveFor(String variable, double target) throws Exception {
+        if (!containsVariable(variable)) throw new UnknownVariableException(String.format("Variable '%s' was not found in the formula", variable));
+
+        final Set<String> CONSTANTS = new HashSet<>(compile().variables());
+        CONSTANTS.remove(variable);
+        final double GUESS = (VALUES.get(variable) == null) ? 0 : decimalValue(variable).doubleValue();
+
+        return Solver.solve(compile(CONSTANTS), target, GUESS);
+    }
+
+    /**
+     * Evaluates the compiled formula for every row of {@code columns} using {@code double}
+     * arithmetic, without defining the variables row by row
+     * @param columns the values of each variable of the formula, one row per index
+     * @return the result of the formula for each row
+     * @throws Exception if the formula is incorrectly formatted
+     * @throws UnknownVariableException if a variable of the formula is not in {@code columns}
+     * @see ColumnEvaluator#evaluate(Program, double[]...)
+     */
+    public double[] evaluateColumns(Map<String, double[]> columns) throws Exception {
+        final Program PROGRAM = compile();
+        final double[][] ARGUMENTS = new double[PROGRAM.VARIABLES.length][];
+
+        for (int slot = 0; slot < ARGUMENTS.length; slot++) {
+            ARGUMENTS[slot] = columns.get(PROGRAM.VARIABLES[slot]);
+            if (ARGUMENTS[slot] == null) throw new UnknownVariableException(String.format("Variable '%s' was not given a column", PROGRAM.VARIABLES[slot]));
+        }
+        return ColumnEvaluator.evaluate(PROGRAM, ARGUMENTS);
+    }
 }
\ No newline at end of file
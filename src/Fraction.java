@@ -0,0 +1,318 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * An exact rational number, always kept in lowest terms with a positive denominator. The
+ * numerator and denominator are {@code long}s while they fit, reduced with
+ * {@link Utility#gcf(long, long)}, and arithmetic on them checks for overflow instead of
+ * allocating. A result that would overflow is computed with {@link BigInteger}s instead, and
+ * goes back to {@code long}s as soon as it is small enough again.
+ * <p>A power or a decimal whose exact fraction would have more than {@link Bitwise#MAX_DIGITS}
+ * digits is an error rather than a computation that ties up the thread for minutes.
+ * <p>Fractions are immutable, so they can be shared between threads.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see RationalEvaluator
+ */
+public final class Fraction extends Number implements Comparable<Fraction> {
+    // -- Attributes -- \\
+    private static final long serialVersionUID = 3870552734913592604L;
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final long MAX_BITS = (long)Math.ceil(Bitwise.MAX_DIGITS / Math.log10(2)); //The bits of the largest numerator or denominator worked out exactly
+
+    public static final Fraction ZERO = new Fraction(0, 1);
+    public static final Fraction ONE = new Fraction(1, 1);
+
+    private final long NUMERATOR;
+    private final long DENOMINATOR;
+    //The numerator and denominator if they don't fit in longs, otherwise null
+    private final BigInteger BIG_NUMERATOR;
+    private final BigInteger BIG_DENOMINATOR;
+
+    // -- Constructors -- \\
+    private Fraction(long numerator, long denominator) {
+        NUMERATOR = numerator;
+        DENOMINATOR = denominator;
+        BIG_NUMERATOR = null;
+        BIG_DENOMINATOR = null;
+    }
+    private Fraction(BigInteger numerator, BigInteger denominator) {
+        NUMERATOR = 0;
+        DENOMINATOR = 0;
+        BIG_NUMERATOR = numerator;
+        BIG_DENOMINATOR = denominator;
+    }
+
+    // -- Methods -- \\
+    /**
+     * Creates the fraction {@code numerator/denominator} in lowest terms
+     * @param numerator the numerator of the fraction
+     * @param denominator the denominator of the fraction
+     * @return the reduced fraction
+     * @throws ArithmeticException if {@code denominator} is {@code 0}
+     */
+    public static Fraction of(long numerator, long denominator) throws ArithmeticException {
+        if (denominator == 0) {throw new ArithmeticException("Divide by 0");}
+        if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {return of(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));} //can't be negated
+        if (numerator == 0) return ZERO;
+        if (denominator < 0) {
+            numerator = -numerator;
+            denominator = -denominator;
+        }
+
+        final long FACTOR = Math.abs(Utility.gcf(numerator, denominator));
+        return new Fraction(numerator / FACTOR, denominator / FACTOR);
+    }
+    /**
+     * Creates the fraction {@code numerator/denominator} in lowest terms
+     * @param numerator the numerator of the fraction
+     * @param denominator the denominator of the fraction
+     * @return the reduced fraction
+     * @throws ArithmeticException if {@code denominator} is {@code 0}
+     */
+    public static Fraction of(BigInteger numerator, BigInteger denominator) throws ArithmeticException {
+        if (denominator.signum() == 0) {throw new ArithmeticException("Divide by 0");}
+        if (numerator.signum() == 0) return ZERO;
+        if (denominator.signum() < 0) {
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+
+        final BigInteger FACTOR = numerator.gcd(denominator);
+        if (!FACTOR.equals(BigInteger.ONE)) {
+            numerator = numerator.divide(FACTOR);
+            denominator = denominator.divide(FACTOR);
+        }
+        if (fits(numerator) && fits(denominator)) {return new Fraction(numerator.longValue(), denominator.longValue());}
+        return new Fraction(numerator, denominator);
+    }
+
+    /**
+     * Creates the fraction with the exact value of {@code number}
+     * @param number the decimal number
+     * @return the fraction equal to {@code number}
+     * @throws ArithmeticException if the fraction would have more than {@link Bitwise#MAX_DIGITS} digits
+     */
+    public static Fraction valueOf(BigDecimal number) throws ArithmeticException {
+        final int SCALE = number.scale();
+        if (number.signum() == 0) return ZERO;
+        if (Math.abs((long)SCALE) > Bitwise.MAX_DIGITS) {throw new ArithmeticException("Number has too many digits for an exact fraction");} //checked before the power of ten is built
+        if (number.precision() <= 18 && SCALE >= 0 && SCALE <= 18) { //the unscaled value and the power of 10 fit in longs
+            return of(number.unscaledValue().longValue(), pow10(SCALE));
+        }
+        if (SCALE <= 0) {return of(number.toBigIntegerExact(), BigInteger.ONE);}
+        return of(number.unscaledValue(), BigInteger.TEN.pow(SCALE));
+    }
+
+    private static long pow10(int exponent) {
+        long power = 1;
+        for (int index = 0; index < exponent; index++) {power *= 10;}
+        return power;
+    }
+
+    private static boolean fits(BigInteger number) {
+        return number.bitLength() < 64 && !number.equals(LONG_MIN); //Long.MIN_VALUE can't be negated
+    }
+
+    /** @return whether {@code product}, the result of {@code first * second}, overflowed */
+    private static boolean overflows(long first, long second, long product) {
+        return Math.multiplyHigh(first, second) != (product >> 63);
+    }
+
+    /** @return whether the numerator and denominator are {@code long}s */
+    private boolean isCompact() {
+        return BIG_NUMERATOR == null;
+    }
+
+    /** @return the numerator of the fraction in lowest terms */
+    public BigInteger numerator() {
+        return isCompact() ? BigInteger.valueOf(NUMERATOR) : BIG_NUMERATOR;
+    }
+
+    /** @return the positive denominator of the fraction in lowest terms */
+    public BigInteger denominator() {
+        return isCompact() ? BigInteger.valueOf(DENOMINATOR) : BIG_DENOMINATOR;
+    }
+
+    /** @return whether the fraction is a whole number */
+    public boolean isInteger() {
+        return isCompact() ? DENOMINATOR == 1 : BIG_DENOMINATOR.equals(BigInteger.ONE);
+    }
+
+    /** @return {@code -1}, {@code 0} or {@code 1} as the fraction is negative, zero or positive */
+    public int signum() {
+        return isCompact() ? Long.signum(NUMERATOR) : BIG_NUMERATOR.signum();
+    }
+
+    /** @return {@code this + other} */
+    public Fraction add(Fraction other) {
+        return sum(other, false);
+    }
+
+    /** @return {@code this - other} */
+    public Fraction subtract(Fraction other) {
+        return sum(other, true);
+    }
+
+    private Fraction sum(Fraction other, boolean subtract) {
+        if (isCompact() && other.isCompact()) { //scale both to the least common denominator
+            final long FACTOR = Utility.gcf(DENOMINATOR, other.DENOMINATOR);
+            final long LEFT_SCALE = other.DENOMINATOR / FACTOR;
+            final long RIGHT_SCALE = DENOMINATOR / FACTOR;
+            final long LEFT = NUMERATOR * LEFT_SCALE;
+            final long RIGHT = other.NUMERATOR * RIGHT_SCALE;
+            final long DENOMINATOR = this.DENOMINATOR * LEFT_SCALE;
+            final long RESULT = subtract ? LEFT - RIGHT : LEFT + RIGHT;
+            final boolean OVERFLOW = subtract ? ((LEFT ^ RIGHT) & (LEFT ^ RESULT)) < 0 : ((LEFT ^ RESULT) & (RIGHT ^ RESULT)) < 0;
+
+            if (!overflows(NUMERATOR, LEFT_SCALE, LEFT) && !overflows(other.NUMERATOR, RIGHT_SCALE, RIGHT) && !overflows(this.DENOMINATOR, LEFT_SCALE, DENOMINATOR) && !OVERFLOW) {
+                return of(RESULT, DENOMINATOR);
+            }
+        }
+        final BigInteger LEFT = numerator().multiply(other.denominator());
+        final BigInteger RIGHT = other.numerator().multiply(denominator());
+        return of(subtract ? LEFT.subtract(RIGHT) : LEFT.add(RIGHT), denominator().multiply(other.denominator()));
+    }
+
+    /** @return {@code this * other} */
+    public Fraction multiply(Fraction other) {
+        if (signum() == 0 || other.signum() == 0) return ZERO;
+        if (isCompact() && other.isCompact()) { //cancel across first, so the product is already in lowest terms
+            final long FIRST = Math.abs(Utility.gcf(NUMERATOR, other.DENOMINATOR));
+            final long SECOND = Math.abs(Utility.gcf(other.NUMERATOR, DENOMINATOR));
+
+            final long LEFT = NUMERATOR / FIRST, RIGHT = other.NUMERATOR / SECOND;
+            final long LOW = DENOMINATOR / SECOND, HIGH = other.DENOMINATOR / FIRST;
+            final long NUMERATOR = LEFT * RIGHT;
+            final long DENOMINATOR = LOW * HIGH;
+            final boolean FITS = NUMERATOR != Long.MIN_VALUE; //can't be negated, so it is kept as a BigInteger like of(long, long) does
+            if (FITS && !overflows(LEFT, RIGHT, NUMERATOR) && !overflows(LOW, HIGH, DENOMINATOR)) {return new Fraction(NUMERATOR, DENOMINATOR);}
+        }
+        return of(numerator().multiply(other.numerator()), denominator().multiply(other.denominator()));
+    }
+
+    /**
+     * @return {@code this / other}
+     * @throws ArithmeticException if {@code other} is {@code 0}
+     */
+    public Fraction divide(Fraction other) throws ArithmeticException {
+        if (other.signum() == 0) {throw new ArithmeticException("Divide by 0");}
+        return multiply(other.reciprocal());
+    }
+
+    /**
+     * @return the remainder of {@code this / other} truncated to an integer, which has the sign
+     * of {@code this} like {@link BigDecimal#remainder(BigDecimal)}
+     * @throws ArithmeticException if {@code other} is {@code 0}
+     */
+    public Fraction remainder(Fraction other) throws ArithmeticException {
+        if (other.signum() == 0) {throw new ArithmeticException("Divide by 0");}
+        final Fraction QUOTIENT = divide(other);
+        final BigInteger WHOLE = QUOTIENT.numerator().divide(QUOTIENT.denominator()); //truncates toward 0
+        return subtract(other.multiply(of(WHOLE, BigInteger.ONE)));
+    }
+
+    /** @return {@code -this} */
+    public Fraction negate() {
+        if (isCompact() && NUMERATOR != Long.MIN_VALUE) {return new Fraction(-NUMERATOR, DENOMINATOR);}
+        return of(numerator().negate(), denominator());
+    }
+
+    /** @return the absolute value of the fraction */
+    public Fraction abs() {
+        return (signum() < 0) ? negate() : this;
+    }
+
+    /**
+     * @return {@code 1 / this}
+     * @throws ArithmeticException if the fraction is {@code 0}
+     */
+    public Fraction reciprocal() throws ArithmeticException {
+        if (isCompact()) {return of(DENOMINATOR, NUMERATOR);}
+        return of(BIG_DENOMINATOR, BIG_NUMERATOR);
+    }
+
+    /**
+     * Raises the fraction to an integer power
+     * @param exponent the power, which may be negative
+     * @return {@code this^exponent}
+     * @throws ArithmeticException if the fraction is {@code 0} and {@code exponent} is negative, or
+     * the result would have more than {@link Bitwise#MAX_DIGITS} digits
+     */
+    public Fraction pow(int exponent) throws ArithmeticException {
+        //|n|^e has at least (bitLength(n)-1)*e bits, so this only rejects powers that are certainly too large
+        final long BITS = Math.max(numerator().abs().bitLength(), denominator().bitLength()) - 1;
+        if (BITS * Math.abs((long)exponent) > MAX_BITS) {throw new ArithmeticException("Power is too large");}
+
+        if (exponent < 0) {
+            final Fraction RECIPROCAL = reciprocal();
+            return RECIPROCAL.pow(-(exponent+1)).multiply(RECIPROCAL); //-exponent overflows for Integer.MIN_VALUE
+        }
+        return of(numerator().pow(exponent), denominator().pow(exponent));
+    }
+
+    /**
+     * Converts the fraction to a decimal number
+     * @param context the precision and rounding of the result, which may be
+     * {@link MathContext#UNLIMITED} if the decimal terminates
+     * @return the value of the fraction rounded to {@code context}
+     * @throws ArithmeticException if {@code context} is unlimited and the decimal doesn't terminate
+     */
+    public BigDecimal toBigDecimal(MathContext context) throws ArithmeticException {
+        if (isCompact()) {return BigDecimal.valueOf(NUMERATOR).divide(BigDecimal.valueOf(DENOMINATOR), context);}
+        return new BigDecimal(BIG_NUMERATOR).divide(new BigDecimal(BIG_DENOMINATOR), context);
+    }
+
+    @Override
+    public int intValue() {
+        return (int)longValue();
+    }
+
+    /** @return the fraction truncated to an integer, then to the low 64 bits like {@link BigInteger#longValue()} */
+    @Override
+    public long longValue() {
+        if (isCompact()) {return NUMERATOR / DENOMINATOR;}
+        return BIG_NUMERATOR.divide(BIG_DENOMINATOR).longValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float)doubleValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        if (isCompact() && Math.abs(NUMERATOR) < (1L << 53) && DENOMINATOR < (1L << 53)) {return (double)NUMERATOR / DENOMINATOR;} //both exact as doubles, so the quotient is correctly rounded
+        return toBigDecimal(MathContext.DECIMAL128).doubleValue();
+    }
+
+    @Override
+    public int compareTo(Fraction other) {
+        return numerator().multiply(other.denominator()).compareTo(other.numerator().multiply(denominator()));
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Fraction)) return false;
+
+        final Fraction OTHER = (Fraction)object;
+        if (isCompact() != OTHER.isCompact()) return false; //both are in lowest terms, so compact fractions are never equal to big ones
+        if (isCompact()) {return NUMERATOR == OTHER.NUMERATOR && DENOMINATOR == OTHER.DENOMINATOR;}
+        return BIG_NUMERATOR.equals(OTHER.BIG_NUMERATOR) && BIG_DENOMINATOR.equals(OTHER.BIG_DENOMINATOR);
+    }
+
+    @Override
+    public int hashCode() {
+        if (isCompact()) {return Long.hashCode(NUMERATOR) * 31 + Long.hashCode(DENOMINATOR);}
+        return BIG_NUMERATOR.hashCode() * 31 + BIG_DENOMINATOR.hashCode();
+    }
+
+    /** @return the fraction as {@code numerator/denominator}, or only the numerator if it is a whole number */
+    @Override
+    public String toString() {
+        if (isInteger()) {return numerator().toString();}
+        return numerator() + "/" + denominator();
+    }
+}
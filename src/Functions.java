@@ -0,0 +1,288 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * The registry of the functions expressions can call. Every function has an id, its index in
+ * the registry, which compiled {@link Program}s refer to it by, so calling a function is an
+ * array lookup rather than a search by name. Names are found with a hash table that can be
+ * probed with the characters of a token in place. The built-in functions of
+ * {@link Expression#FUNCTIONS} have the ids {@code 0} to {@code 14} in the same order.
+ * <p>Functions are registered once, usually at startup, and can't be removed, so ids stay valid
+ * for the life of the program. A registered function is called like a built-in one, with its
+ * arguments separated by commas, as in {@code hypot(3, 4)}.
+ * <p>A function is pure if its result only depends on its arguments. Calls to pure functions
+ * with constant arguments are folded when a program is compiled, and equal calls are shared by
+ * an {@link ExpressionStore}; impure functions are called every time.
+ * <p>The vector functions {@code dot}, {@code norm} and {@code sum} are computed over whole
+ * vectors by the {@link VectorEvaluator}. Here they are given scalars, which are vectors of one
+ * element.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see MathFunction
+ */
+public final class Functions {
+    // -- Attributes -- \\
+    static final int SQRT = 0, ABS = 1, SIN = 2, COS = 3, TAN = 4, ARCSIN = 5, ARCCOS = 6, ARCTAN = 7, FACTORIAL = 8, XOR = 9, SHL = 10, SHR = 11, DOT = 12, NORM = 13, SUM = 14;
+    private static final int BUILT_IN = 15; //The number of built-in functions
+
+    /** An immutable snapshot of the registry, replaced whole when a function is registered */
+    private static final class Table {
+        final String[] NAMES;
+        final int[] ARITIES;
+        final boolean[] PURE;
+        final MathFunction[] IMPLEMENTATIONS;
+        /** An open addressing hash table of {@code id+1} by the hash of the name, or {@code 0} for an empty slot */
+        final int[] SLOTS;
+
+        Table(String[] names, int[] arities, boolean[] pure, MathFunction[] implementations) {
+            NAMES = names;
+            ARITIES = arities;
+            PURE = pure;
+            IMPLEMENTATIONS = implementations;
+            SLOTS = new int[Integer.highestOneBit(names.length*4)];
+
+            for (int id = 0; id < names.length; id++) {
+                int slot = hash(names[id], 0, names[id].length()) & (SLOTS.length-1);
+                while (SLOTS[slot] != 0) {slot = (slot+1) & (SLOTS.length-1);}
+                SLOTS[slot] = id+1;
+            }
+        }
+
+        /** Finds the id of the name from {@code start} to {@code end} of {@code seq}, or {@code -1} */
+        int id(CharSequence seq, int start, int end) {
+            int slot = hash(seq, start, end) & (SLOTS.length-1);
+            while (SLOTS[slot] != 0) {
+                final String NAME = NAMES[SLOTS[slot]-1];
+                if (matches(NAME, seq, start, end)) return SLOTS[slot]-1;
+                slot = (slot+1) & (SLOTS.length-1);
+            }
+            return -1;
+        }
+    }
+
+    private static volatile Table table;
+
+    static {
+        final int[] ARITIES = new int[BUILT_IN];
+        final boolean[] PURE = new boolean[BUILT_IN];
+
+        Arrays.fill(ARITIES, 1);
+        Arrays.fill(ARITIES, XOR, SHR+1, 2); //the bitwise functions
+        ARITIES[DOT] = 2;
+        Arrays.fill(PURE, true);
+        table = new Table(Expression.FUNCTIONS.clone(), ARITIES, PURE, new MathFunction[BUILT_IN]);
+    }
+
+    // -- Constructors -- \\
+    private Functions() {}
+
+    // -- Methods -- \\
+    /**
+     * Registers a function so expressions can call it by {@code name}
+     * @param name the name expressions call the function by, made only of letters
+     * @param arity the number of arguments the function takes
+     * @param pure whether the result of the function only depends on its arguments
+     * @param function the implementation of the function
+     * @return the id of the function
+     * @throws IllegalArgumentException if {@code name} is not a valid name or is already registered,
+     * or {@code arity} is negative
+     */
+    public static synchronized int register(String name, int arity, boolean pure, MathFunction function) {
+        if (!name.matches("\\p{L}+") || name.charAt(0) == 'e') {throw new IllegalArgumentException(String.format("Illegal function name: '%s'", name));}
+        if (arity < 0) {throw new IllegalArgumentException(String.format("Illegal arity: %d", arity));}
+        if (function == null) {throw new NullPointerException("function");}
+
+        final Table OLD = table;
+        if (OLD.id(name, 0, name.length()) > -1) {throw new IllegalArgumentException(String.format("Function '%s' is already registered", name));}
+
+        final int ID = OLD.NAMES.length;
+        final String[] NAMES = Arrays.copyOf(OLD.NAMES, ID+1);
+        final int[] ARITIES = Arrays.copyOf(OLD.ARITIES, ID+1);
+        final boolean[] PURE = Arrays.copyOf(OLD.PURE, ID+1);
+        final MathFunction[] IMPLEMENTATIONS = Arrays.copyOf(OLD.IMPLEMENTATIONS, ID+1);
+
+        NAMES[ID] = name;
+        ARITIES[ID] = arity;
+        PURE[ID] = pure;
+        IMPLEMENTATIONS[ID] = function;
+        table = new Table(NAMES, ARITIES, PURE, IMPLEMENTATIONS);
+        return ID;
+    }
+
+    /**
+     * Finds the id of a function
+     * @param name the name of the function
+     * @return the id of the function, or {@code -1} if no function is registered as {@code name}
+     */
+    public static int id(String name) {
+        return table.id(name, 0, name.length());
+    }
+    /**
+     * Finds the id of the function named by part of {@code seq}, without copying the name
+     * @param seq the text containing the name
+     * @param start the index of the first character of the name
+     * @param end the index after the last character of the name
+     * @return the id of the function, or {@code -1} if no function is registered by that name
+     */
+    static int id(CharSequence seq, int start, int end) {
+        return table.id(seq, start, end);
+    }
+
+    /** @return a hash of the characters from {@code start} to {@code end}, the same for a name and its token */
+    private static int hash(CharSequence seq, int start, int end) {
+        int hash = 0;
+        for (int index = start; index < end; index++) {hash = 31*hash + seq.charAt(index);}
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence seq, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int index = 0; index < name.length(); index++) {
+            if (name.charAt(index) != seq.charAt(start + index)) return false;
+        }
+        return true;
+    }
+
+    /** @return the number of registered functions, including the built-in ones */
+    public static int size() {
+        return table.NAMES.length;
+    }
+
+    /** @return the name of the function with the id {@code id} */
+    public static String name(int id) {
+        return table.NAMES[id];
+    }
+
+    /** @return the number of arguments the function with the id {@code id} takes */
+    public static int arity(int id) {
+        return table.ARITIES[id];
+    }
+
+    /** @return whether the result of the function with the id {@code id} only depends on its arguments */
+    public static boolean isPure(int id) {
+        return table.PURE[id];
+    }
+
+    /**
+     * Applies a function of one argument, rounding the result to {@code context}. The
+     * trigonometric functions are computed in {@code double} arithmetic, so they never have more
+     * than about 17 correct digits whatever the precision of {@code context}.
+     * @throws ArithmeticException if the result has no defined value, or can't be represented exactly
+     * when {@code context} is unlimited
+     */
+    static BigDecimal apply(int id, BigDecimal number, MathContext context) throws ArithmeticException {
+        double value = number.doubleValue();
+
+        switch (id) {
+            case SQRT:
+            	return number.sqrt(context);
+            case ABS:
+            	return number.abs(context);
+            case SIN:
+            	return decimal(id, Math.sin(value), context);
+            case COS:
+            	return decimal(id, Math.cos(value), context);
+            case TAN:
+            	return decimal(id, Math.tan(value), context);
+            case ARCSIN:
+            	return decimal(id, Math.asin(value), context);
+            case ARCCOS:
+            	return decimal(id, Math.acos(value), context);
+            case ARCTAN:
+            	return decimal(id, Math.atan(value), context);
+            case FACTORIAL:
+	            if (Utility.isDecimal(number)) {
+	                return decimal(id, Utility.gamma(number.doubleValue()), context);
+	            } else {
+	                return Factorial.of(number.intValueExact(), context);
+	            }
+            case NORM: //the vector functions of a scalar, as a vector of one element
+            	return number.abs(context);
+            case SUM:
+            	return number.round(context);
+        }
+        return table.IMPLEMENTATIONS[id].apply(context, number);
+    }
+    /**
+     * Converts the {@code double} result of the function with the id {@code id} to a decimal
+     * @throws ArithmeticException if {@code result} is {@code NaN} or infinite
+     */
+    private static BigDecimal decimal(int id, double result, MathContext context) throws ArithmeticException {
+        if (!Double.isFinite(result)) {throw new ArithmeticException(String.format("The result of '%s' has no defined value", name(id)));}
+        return new BigDecimal(result, context);
+    }
+
+    /**
+     * Applies a function of any number of arguments, rounding the result to {@code context}
+     * @throws ArithmeticException if the result has no defined value
+     */
+    static BigDecimal apply(int id, MathContext context, BigDecimal... arguments) throws ArithmeticException {
+        switch (id) {
+            case XOR:
+            	return Bitwise.apply(Bitwise.XOR, arguments[0], arguments[1], context);
+            case SHL:
+            	return Bitwise.apply(Bitwise.SHIFT_LEFT, arguments[0], arguments[1], context);
+            case SHR:
+            	return Bitwise.apply(Bitwise.SHIFT_RIGHT, arguments[0], arguments[1], context);
+            case DOT:
+            	return arguments[0].multiply(arguments[1], context);
+        }
+        if (id < BUILT_IN) {return apply(id, arguments[0], context);}
+        return table.IMPLEMENTATIONS[id].apply(context, arguments);
+    }
+
+    /** Applies a function of one argument in {@code double} arithmetic */
+    static double apply(int id, double value) throws ArithmeticException {
+        switch (id) {
+            case SQRT:
+            	return Math.sqrt(value);
+            case ABS:
+            	return Math.abs(value);
+            case SIN:
+            	return Math.sin(value);
+            case COS:
+            	return Math.cos(value);
+            case TAN:
+            	return Math.tan(value);
+            case ARCSIN:
+            	return Math.asin(value);
+            case ARCCOS:
+            	return Math.acos(value);
+            case ARCTAN:
+            	return Math.atan(value);
+            case FACTORIAL:
+	            if (value != Math.rint(value)) {
+	                return Utility.gamma(value);
+	            } else {
+	                return Factorial.ofDouble((long)value);
+	            }
+            case NORM:
+            	return Math.abs(value);
+            case SUM:
+            	return value;
+        }
+        return table.IMPLEMENTATIONS[id].apply(value);
+    }
+    /** Applies a function of any number of arguments in {@code double} arithmetic */
+    static double apply(int id, double[] arguments) throws ArithmeticException {
+        switch (id) {
+            case XOR:
+            	return Bitwise.apply(Bitwise.XOR, arguments[0], arguments[1]);
+            case SHL:
+            	return Bitwise.apply(Bitwise.SHIFT_LEFT, arguments[0], arguments[1]);
+            case SHR:
+            	return Bitwise.apply(Bitwise.SHIFT_RIGHT, arguments[0], arguments[1]);
+            case DOT:
+            	return arguments[0] * arguments[1];
+        }
+        if (id < BUILT_IN) {return apply(id, arguments[0]);}
+        return table.IMPLEMENTATIONS[id].apply(arguments);
+    }
+
+    //Calls with the id last, so compiled code can push the id after the arguments
+    static double call(int id) {return apply(id, new double[0]);}
+    static double call(double first, int id) {return apply(id, first);}
+    static double call(double first, double second, int id) {return apply(id, new double[] {first, second});}
+    static double call(double first, double second, double third, int id) {return apply(id, new double[] {first, second, third});}
+}
@@ -0,0 +1,262 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Evaluates a compiled {@link Program} with the same results as
+ * {@link Program#evaluate(MathContext, BigDecimal...)}, but without allocating {@link BigDecimal}s
+ * for the values that don't need them. Each value on the stack is held as an unscaled
+ * {@code long} and a scale, the same parts a {@link BigDecimal} is made of, as long as it fits.
+ * Addition, subtraction, multiplication, scientific notation, negation and exact division are
+ * done on the {@code long}s with overflow checks, and give the exact value with the exact scale
+ * the {@link BigDecimal} operation would. The bitwise operators and functions are done on the
+ * {@code long}s whenever both operands are integers, so mask and flag formulas never leave them.
+ * <p>A value is promoted to a {@link BigDecimal} when an operation would overflow, when a
+ * division doesn't terminate, and for the operations and functions that only have a
+ * {@link BigDecimal} form, which then compute it exactly as the {@link BigDecimal} path does.
+ * Promoted values stay {@link BigDecimal}s for the rest of the evaluation. Integer and short
+ * decimal arithmetic never leaves the {@code long}s, so the only allocation is the result.
+ * <p>Every exact {@code long} result has at most 19 digits, so results are only the same as the
+ * {@link BigDecimal} path when the {@link MathContext} keeps at least that many. A context with
+ * less precision evaluates on the {@link BigDecimal} path.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Program#evaluate(MathContext, BigDecimal...)
+ */
+public abstract class HybridEvaluator {
+    // -- Attributes -- \\
+    /** The scale of a value on the stack that is held as a {@link BigDecimal} */
+    static final int PROMOTED = Integer.MIN_VALUE;
+    private static final int LONG_DIGITS = 19; //The most digits of a long
+    private static final long[] POWERS_OF_TEN = new long[LONG_DIGITS];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int power = 1; power < POWERS_OF_TEN.length; power++) {POWERS_OF_TEN[power] = POWERS_OF_TEN[power-1] * 10;}
+    }
+
+    /**
+     * The stack a thread evaluates programs on, split into the parts of each value. A function
+     * that evaluates another program takes the part of the stack above the program calling it.
+     */
+    private static final class Scratch {
+        long[] unscaled = new long[64];
+        int[] scales = new int[64];
+        BigDecimal[] decimals = new BigDecimal[64]; //The values whose scale is PROMOTED
+        int used = 0; //The number of values taken by the evaluations in progress on the thread
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCHES = ThreadLocal.withInitial(Scratch::new);
+
+    // -- Methods -- \\
+    /**
+     * Evaluates {@code program}, rounding every operation to {@code context}
+     * @param program the program to evaluate
+     * @param context the precision and rounding of each operation
+     * @param values the values of the variables in slot order
+     * @return the result of the program, the same as {@link Program#evaluate(MathContext, BigDecimal...)}
+     * @throws ArithmeticException if an operation has no defined result, or if {@code context} is
+     * unlimited and a result can't be represented exactly
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see Program#variables()
+     */
+    public static BigDecimal evaluate(Program program, MathContext context, BigDecimal... values) throws ArithmeticException {
+        if (context.getPrecision() > 0 && context.getPrecision() < LONG_DIGITS) {return program.evaluate(context, values);}
+        if (values.length < program.VARIABLES.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", program.VARIABLES[values.length]));
+        }
+
+        final Scratch SCRATCH = SCRATCHES.get();
+        final int BASE = SCRATCH.used;
+        if (SCRATCH.unscaled.length < BASE + program.DEPTH) { //evaluations in progress keep the arrays they started with
+            final int LENGTH = Math.max(BASE + program.DEPTH, SCRATCH.unscaled.length*2);
+            SCRATCH.unscaled = new long[LENGTH];
+            SCRATCH.scales = new int[LENGTH];
+            SCRATCH.decimals = new BigDecimal[LENGTH];
+        }
+        final long[] UNSCALED = SCRATCH.unscaled;
+        final int[] SCALES = SCRATCH.scales;
+        final BigDecimal[] DECIMALS = SCRATCH.decimals;
+        SCRATCH.used = BASE + program.DEPTH;
+
+        try {
+            evaluate(program, context, values, UNSCALED, SCALES, DECIMALS, BASE-1);
+            return decimal(UNSCALED, SCALES, DECIMALS, BASE).round(context); //as the BigDecimal path rounds its result
+        } finally {
+            Arrays.fill(DECIMALS, BASE, BASE + program.DEPTH, null); //don't keep promoted values alive
+            SCRATCH.used = BASE;
+        }
+    }
+
+    /** Evaluates {@code program} on the stack above {@code top} */
+    private static void evaluate(Program program, MathContext context, BigDecimal[] values, long[] unscaled, int[] scales, BigDecimal[] decimals, int top) throws ArithmeticException {
+        for (int index = 0; index < program.CODE.length; index++) {
+            final int OPERAND = program.OPERANDS[index];
+
+            switch (program.CODE[index]) {
+                case Program.NUMBER:
+                    scales[++top] = program.CONSTANT_SCALES[OPERAND];
+                    if (scales[top] == PROMOTED) {
+                        decimals[top] = program.CONSTANTS[OPERAND];
+                    } else {
+                        unscaled[top] = program.LONG_CONSTANTS[OPERAND];
+                    }
+                    break;
+                case Program.VARIABLE:
+                    push(values[OPERAND], unscaled, scales, decimals, ++top);
+                    break;
+                case Program.NEGATE:
+                    if (scales[top] != PROMOTED && unscaled[top] != Long.MIN_VALUE) {
+                        unscaled[top] = -unscaled[top];
+                    } else {
+                        decimals[top] = decimal(unscaled, scales, decimals, top).negate();
+                        scales[top] = PROMOTED;
+                    }
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    if (scales[top] == PROMOTED || scales[top+1] == PROMOTED || !operation(unscaled, scales, top, (char)OPERAND)) {
+                        decimals[top] = Expression.operation(decimal(unscaled, scales, decimals, top), decimal(unscaled, scales, decimals, top+1), (char)OPERAND, context);
+                        scales[top] = PROMOTED;
+                    }
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(OPERAND);
+                    if (ARITY == 2 && function(OPERAND, unscaled, scales, top-1)) {
+                        top--;
+                        break;
+                    }
+                    if (ARITY == 1) {
+                        decimals[top] = Functions.apply(OPERAND, decimal(unscaled, scales, decimals, top), context);
+                    } else {
+                        final BigDecimal[] ARGUMENTS = new BigDecimal[ARITY];
+                        top -= ARITY-1;
+                        for (int argument = 0; argument < ARITY; argument++) {ARGUMENTS[argument] = decimal(unscaled, scales, decimals, top + argument);}
+                        decimals[top] = Functions.apply(OPERAND, context, ARGUMENTS);
+                    }
+                    scales[top] = PROMOTED;
+                    break;
+                case Program.VECTOR:
+                    throw Program.notScalar();
+            }
+        }
+    }
+
+    /** Puts {@code value} on the stack at {@code index}, as a {@code long} if it fits */
+    private static void push(BigDecimal value, long[] unscaled, int[] scales, BigDecimal[] decimals, int index) {
+        if (value.precision() <= 18 && value.scale() != PROMOTED) { //any 18 digits fit in a long
+            unscaled[index] = (value.scale() == 0) ? value.longValue() : value.unscaledValue().longValue();
+            scales[index] = value.scale();
+        } else {
+            decimals[index] = value;
+            scales[index] = PROMOTED;
+        }
+    }
+
+    /** @return the value on the stack at {@code index} as a {@link BigDecimal} */
+    private static BigDecimal decimal(long[] unscaled, int[] scales, BigDecimal[] decimals, int index) {
+        return (scales[index] == PROMOTED) ? decimals[index] : BigDecimal.valueOf(unscaled[index], scales[index]);
+    }
+
+    /**
+     * Applies {@code operator} to the {@code long} values at {@code index} and {@code index+1},
+     * storing the result at {@code index}
+     * @return whether the result was stored, which is only when it is exact and has the scale the
+     * {@link BigDecimal} operation gives it
+     */
+    private static boolean operation(long[] unscaled, int[] scales, int index, char operator) {
+        final long FIRST = unscaled[index];
+        final long SECOND = unscaled[index+1];
+        final int FIRST_SCALE = scales[index];
+        final int SECOND_SCALE = scales[index+1];
+
+        switch (operator) {
+            case '+':
+            case '-': { //the exact sum has the larger scale
+                final int SCALE = Math.max(FIRST_SCALE, SECOND_SCALE);
+                if ((long)SCALE - Math.min(FIRST_SCALE, SECOND_SCALE) >= LONG_DIGITS) return false;
+
+                final long LEFT = FIRST * POWERS_OF_TEN[SCALE - FIRST_SCALE];
+                final long RIGHT = SECOND * POWERS_OF_TEN[SCALE - SECOND_SCALE];
+                if (overflows(FIRST, POWERS_OF_TEN[SCALE - FIRST_SCALE], LEFT) || overflows(SECOND, POWERS_OF_TEN[SCALE - SECOND_SCALE], RIGHT)) return false;
+
+                final long RESULT = (operator == '+') ? LEFT + RIGHT : LEFT - RIGHT;
+                final boolean OVERFLOW = (operator == '+') ? ((LEFT ^ RESULT) & (RIGHT ^ RESULT)) < 0 : ((LEFT ^ RIGHT) & (LEFT ^ RESULT)) < 0;
+                if (OVERFLOW) return false;
+                return store(unscaled, scales, index, RESULT, SCALE);
+            }
+            case '*': { //the exact product has the sum of the scales
+                final long RESULT = FIRST * SECOND;
+                if (overflows(FIRST, SECOND, RESULT)) return false;
+                return store(unscaled, scales, index, RESULT, (long)FIRST_SCALE + SECOND_SCALE);
+            }
+            case '/': { //an exact quotient has the difference of the scales, or the fewest more digits it needs
+                if (SECOND == 0 || (FIRST == Long.MIN_VALUE && SECOND == -1)) return false;
+
+                long dividend = FIRST;
+                for (int shift = 0; shift < LONG_DIGITS; shift++) {
+                    if (dividend % SECOND == 0) {return store(unscaled, scales, index, dividend / SECOND, (long)FIRST_SCALE - SECOND_SCALE + shift);}
+
+                    final long NEXT = dividend * 10;
+                    if (overflows(dividend, 10, NEXT)) return false;
+                    dividend = NEXT;
+                }
+                return false;
+            }
+            case 'e': { //moves the point of the first value by the whole second value
+                if (SECOND_SCALE != 0 || SECOND != (int)SECOND) return false;
+                return store(unscaled, scales, index, FIRST, (long)FIRST_SCALE - SECOND);
+            }
+            case '&':
+                return bitwise(Bitwise.AND, unscaled, scales, index);
+            case '|':
+                return bitwise(Bitwise.OR, unscaled, scales, index);
+        }
+        return false;
+    }
+
+    /**
+     * Applies the function with the id {@code id} to the values at {@code index} and
+     * {@code index+1}, storing the result at {@code index}
+     * @return whether the result was stored, which is only for the bitwise functions
+     */
+    private static boolean function(int id, long[] unscaled, int[] scales, int index) {
+        switch (id) {
+            case Functions.XOR:
+                return bitwise(Bitwise.XOR, unscaled, scales, index);
+            case Functions.SHL:
+                return bitwise(Bitwise.SHIFT_LEFT, unscaled, scales, index);
+            case Functions.SHR:
+                return bitwise(Bitwise.SHIFT_RIGHT, unscaled, scales, index);
+        }
+        return false;
+    }
+
+    /**
+     * Applies a bitwise operation to the {@code long} values at {@code index} and {@code index+1},
+     * storing the result at {@code index}
+     * @param operation the operation, such as {@link Bitwise#AND}
+     * @return whether the result was stored, which is only when both values are integers with no
+     * scale and the result fits
+     */
+    private static boolean bitwise(int operation, long[] unscaled, int[] scales, int index) {
+        if (scales[index] != 0 || scales[index+1] != 0 || !Bitwise.isExact(operation, unscaled[index], unscaled[index+1])) return false;
+        unscaled[index] = Bitwise.apply(operation, unscaled[index], unscaled[index+1]);
+        return true;
+    }
+    /** @return whether {@code product}, the result of {@code first * second}, overflowed */
+    private static boolean overflows(long first, long second, long product) {
+        return Math.multiplyHigh(first, second) != (product >> 63);
+    }
+
+    /**
+     * Stores a result on the stack at {@code index}
+     * @return whether the result was stored, which is only when {@code scale} is a valid scale
+     */
+    private static boolean store(long[] unscaled, int[] scales, int index, long value, long scale) {
+        if (scale <= PROMOTED || scale > Integer.MAX_VALUE) return false; //out of range, which the BigDecimal operation reports
+        unscaled[index] = value;
+        scales[index] = (int)scale;
+        return true;
+    }
+}
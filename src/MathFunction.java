@@ -0,0 +1,38 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The implementation of a function that can be called from expressions once it is registered
+ * with {@link Functions#register(String, int, boolean, MathFunction)}. Only the {@code double}
+ * form has to be implemented; the {@link BigDecimal} form computes it in {@code double}
+ * arithmetic unless it is overridden.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Functions
+ */
+@FunctionalInterface
+public interface MathFunction {
+    /**
+     * Applies the function in {@code double} arithmetic
+     * @param arguments the arguments of the call, as many as the arity the function was registered with
+     * @return the result of the function
+     * @throws ArithmeticException if the function has no defined result for {@code arguments}
+     */
+    public abstract double apply(double... arguments) throws ArithmeticException;
+
+    /**
+     * Applies the function in {@link BigDecimal} arithmetic
+     * @param context the precision and rounding of the result
+     * @param arguments the arguments of the call, as many as the arity the function was registered with
+     * @return the result of the function rounded to {@code context}
+     * @throws ArithmeticException if the function has no defined result for {@code arguments}
+     */
+    public default BigDecimal apply(MathContext context, BigDecimal... arguments) throws ArithmeticException {
+        final double[] VALUES = new double[arguments.length];
+        for (int index = 0; index < VALUES.length; index++) {VALUES[index] = arguments[index].doubleValue();}
+
+        final double RESULT = apply(VALUES);
+        if (Double.isNaN(RESULT) || Double.isInfinite(RESULT)) {throw new ArithmeticException("Undefined result");}
+        return new BigDecimal(RESULT, context);
+    }
+}
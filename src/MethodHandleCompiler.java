@@ -0,0 +1,138 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A compilation backend that builds the operator tree of a {@link Program} out of
+ * {@link MethodHandles} combinators. Building the handles is much cheaper than generating the
+ * code of the whole program with the {@link BytecodeCompiler}, so it pays off for programs that
+ * are only evaluated a few thousand times. The finished tree is held in a {@code static final}
+ * field of a small generated class, so the JIT can still inline the whole tree into its caller.
+ * <p>The operators and functions are the implementations behind {@link Expression#OPERATIONS}
+ * and {@link Functions}, with the operator or function id bound as a constant.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see CompiledProgram
+ */
+public abstract class MethodHandleCompiler {
+    // -- Attributes -- \\
+    /** The type of a compiled program, which takes the variable values in slot order */
+    public static final MethodType PROGRAM_TYPE = MethodType.methodType(double.class, double[].class);
+
+    private static final MethodHandle[] OPERATIONS = new MethodHandle[Expression.OPERATIONS.length];
+    private static final MethodHandle FUNCTION;
+    private static final MethodHandle[] CALLS = new MethodHandle[4]; //Functions.call of each arity up to 3, with the id last
+    private static final MethodHandle CALL; //Functions.apply of any number of arguments
+    private static final MethodHandle CHECK_VALUES;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle VARIABLE = MethodHandles.arrayElementGetter(double[].class);
+
+    static {
+        try {
+            final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+            final MethodHandle OPERATION = LOOKUP.findStatic(Expression.class, "operation", MethodType.methodType(double.class, double.class, double.class, char.class));
+            FUNCTION = LOOKUP.findStatic(Functions.class, "apply", MethodType.methodType(double.class, int.class, double.class));
+            CALL = LOOKUP.findStatic(Functions.class, "apply", MethodType.methodType(double.class, int.class, double[].class));
+            for (int arity = 0; arity < CALLS.length; arity++) {
+                final MethodType TYPE = MethodType.methodType(double.class, Collections.nCopies(arity, double.class)).appendParameterTypes(int.class);
+                CALLS[arity] = LOOKUP.findStatic(Functions.class, "call", TYPE);
+            }
+            CHECK_VALUES = LOOKUP.findStatic(Program.class, "checkValues", MethodType.methodType(void.class, int.class, String[].class));
+
+            for (int index = 0; index < OPERATIONS.length; index++) {
+                OPERATIONS[index] = MethodHandles.insertArguments(OPERATION, 2, Expression.OPERATIONS[index].charAt(0));
+            }
+            NEGATE = LOOKUP.findStatic(MethodHandleCompiler.class, "negate", MethodType.methodType(double.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // -- Methods -- \\
+    private static double negate(double value) {
+        return -value;
+    }
+
+    private static MethodHandle operation(char operator) {
+        for (int index = 0; index < Expression.OPERATIONS.length; index++) {
+            if (Expression.OPERATIONS[index].charAt(0) == operator) {return OPERATIONS[index];}
+        }
+        throw new IllegalArgumentException(String.format("Unknown operator '%c'", operator));
+    }
+
+    /** @return a handle of {@code (double, ...)double} that applies the function with the id {@code id} to {@code arity} arguments */
+    private static MethodHandle function(int id, int arity) {
+        if (arity == 1) return MethodHandles.insertArguments(FUNCTION, 0, id);
+        if (arity < CALLS.length) return MethodHandles.insertArguments(CALLS[arity], arity, id);
+        return MethodHandles.insertArguments(CALL, 0, id).asCollector(double[].class, arity);
+    }
+
+    /**
+     * Combines the handles of operands with the handle of an operation on their values
+     * @return a handle of {@link #PROGRAM_TYPE} that applies {@code operation} to the operands
+     */
+    private static MethodHandle combine(MethodHandle operation, MethodHandle... operands) {
+        MethodHandle combined = MethodHandles.filterArguments(operation, 0, operands); //(double[], ...)double
+        return MethodHandles.permuteArguments(combined, PROGRAM_TYPE, new int[operands.length]); //every operand takes the same values
+    }
+
+    /**
+     * Builds a {@link MethodHandle} of {@link #PROGRAM_TYPE} that evaluates {@code program}
+     * using {@code double} arithmetic
+     * @param program the program to build the handle of
+     * @return a handle that takes the variable values in slot order and returns the result, and
+     * throws {@link UnknownVariableException} if there are fewer values than variables
+     * @see Program#evaluateDouble(double...)
+     */
+    public static MethodHandle toHandle(Program program) {
+        final MethodHandle[] STACK = new MethodHandle[program.DEPTH];
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            int operand = program.OPERANDS[index];
+
+            switch (program.CODE[index]) {
+                case Program.NUMBER:
+                    STACK[++top] = MethodHandles.dropArguments(MethodHandles.constant(double.class, program.DOUBLE_CONSTANTS[operand]), 0, double[].class);
+                    break;
+                case Program.VARIABLE:
+                    STACK[++top] = MethodHandles.insertArguments(VARIABLE, 1, operand);
+                    break;
+                case Program.NEGATE:
+                    STACK[top] = MethodHandles.filterReturnValue(STACK[top], NEGATE);
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    STACK[top] = combine(operation((char)operand), STACK[top], STACK[top+1]);
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(operand);
+                    top -= ARITY-1;
+                    STACK[top] = combine(function(operand, ARITY), Arrays.copyOfRange(STACK, top, top+ARITY));
+                    break;
+                case Program.VECTOR:
+                    throw new IllegalArgumentException("Vectors can't be compiled to a scalar handle");
+            }
+        }
+
+        //Program.checkValues(values.length, VARIABLES) before the tree, so missing values fail as they do in the interpreter
+        final MethodHandle CHECK = MethodHandles.filterArguments(MethodHandles.insertArguments(CHECK_VALUES, 1, (Object)program.VARIABLES), 0, MethodHandles.arrayLength(double[].class));
+        return MethodHandles.foldArguments(STACK[0], CHECK);
+    }
+
+    /**
+     * Compiles {@code program} into a tree of method handles, bound as a constant the JIT can inline
+     * @param program the program to compile
+     * @return the compiled program, or the interpreted {@code program} if it could not be compiled
+     * @see #toHandle(Program)
+     */
+    public static CompiledProgram compile(Program program) {
+        try {
+            return BytecodeCompiler.bind(toHandle(program));
+        } catch (ReflectiveOperationException | IllegalArgumentException | LinkageError e) {
+            return program::evaluateDouble;
+        }
+    }
+}
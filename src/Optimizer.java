@@ -0,0 +1,230 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An optimizing pass that runs on a {@link Program} between parsing and evaluation. It folds
+ * every operation and pure function whose operands are all constant, and removes the identities
+ * {@code x*1}, {@code 1*x}, {@code x/1}, {@code x+0}, {@code 0+x}, {@code x-0}, {@code x^1} and
+ * double negation. Known variable values can be bound first so the parts of a formula that only
+ * depend on them are folded as well.
+ * <p>Operations are only folded when their result is exact to {@link MathContext#DECIMAL128}
+ * precision. Results that would be rounded, such as {@code 1/3}, and operations that have no
+ * defined result, such as dividing by {@code 0}, are left in the program for evaluation. A
+ * folded constant and an operand left by removing an identity aren't rounded to the
+ * {@link MathContext} the program is evaluated with, so the program rounds its result to the
+ * context instead. With a context of at least 34 digits or an unlimited one, nothing that was
+ * folded would have been rounded, so the result is the same as the unoptimized program's. With
+ * fewer digits, a folded part of the program is rounded once rather than after each operation,
+ * so the last digit of the result can differ from rounding every step.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#compile()
+ */
+abstract class Optimizer {
+    // -- Attributes -- \\
+    /** Folds to the default precision, but throws instead of rounding */
+    private static final MathContext EXACT = new MathContext(MathContext.DECIMAL128.getPrecision(), RoundingMode.UNNECESSARY);
+    /** The largest number whose factorial has no more significant digits than {@code EXACT} keeps */
+    private static final BigDecimal MAX_FACTORIAL = BigDecimal.valueOf(36);
+
+    /** A node of the operator tree a program is rebuilt into while it is optimized */
+    private static final class Node {
+        final byte OPCODE;
+        final int OPERAND;
+        final BigDecimal CONSTANT; //The value of the node if it is a constant, otherwise null
+        final String VARIABLE;
+        final Node[] OPERANDS;
+        final Node FIRST; //The first operand, or null if there are none
+        final Node SECOND; //The second operand, or null if there are less than two
+
+        Node(byte opcode, int operand, BigDecimal constant, String variable, Node... operands) {
+            OPCODE = opcode;
+            OPERAND = operand;
+            CONSTANT = constant;
+            VARIABLE = variable;
+            OPERANDS = operands;
+            FIRST = (operands.length > 0) ? operands[0] : null;
+            SECOND = (operands.length > 1) ? operands[1] : null;
+        }
+
+        static Node constant(BigDecimal constant) {
+            return new Node(Program.NUMBER, 0, constant, null);
+        }
+
+        boolean is(int integer) {
+            return CONSTANT != null && CONSTANT.scale() == 0 && CONSTANT.compareTo(BigDecimal.valueOf(integer)) == 0;
+        }
+    }
+
+    // -- Methods -- \\
+    /**
+     * Optimizes {@code program}
+     * @param program the program to optimize
+     * @return the optimized program, which has the same variable slots as {@code program}
+     */
+    static Program optimize(Program program) {
+        return optimize(program, Collections.emptyMap());
+    }
+
+    /**
+     * Binds the variables in {@code values} to constants and optimizes {@code program}
+     * @param program the program to optimize
+     * @param values the values of the variables to replace with constants
+     * @return the optimized program, which keeps the slot order of the variables that are not bound
+     */
+    static Program optimize(Program program, Map<String, BigDecimal> values) {
+        final Node[] STACK = new Node[program.DEPTH];
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            byte opcode = program.CODE[index];
+            int operand = program.OPERANDS[index];
+
+            switch (opcode) {
+                case Program.NUMBER:
+                    STACK[++top] = Node.constant(program.CONSTANTS[operand]);
+                    break;
+                case Program.VARIABLE:
+                    String variable = program.VARIABLES[operand];
+                    BigDecimal value = values.get(variable);
+                    STACK[++top] = (value != null) ? Node.constant(value) : new Node(opcode, operand, null, variable);
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    STACK[top] = simplify(new Node(opcode, operand, null, null, STACK[top], STACK[top+1]));
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(operand);
+                    top -= ARITY-1;
+                    STACK[top] = simplify(new Node(opcode, operand, null, null, Arrays.copyOfRange(STACK, top, top+ARITY)));
+                    break;
+                case Program.VECTOR:
+                    top -= operand-1;
+                    STACK[top] = new Node(opcode, operand, null, null, Arrays.copyOfRange(STACK, top, top+operand));
+                    break;
+                default:
+                    STACK[top] = simplify(new Node(opcode, operand, null, null, STACK[top]));
+            }
+        }
+
+        final List<String> VARIABLES = new ArrayList<>();
+        for (String variable : program.VARIABLES) {
+            if (!values.containsKey(variable)) {VARIABLES.add(variable);}
+        }
+
+        Program.Assembler assembler = new Program.Assembler(VARIABLES);
+        emit(assembler, STACK[0]);
+        try {
+            return assembler.assemble();
+        } catch (Exception e) { //the tree of a valid program always assembles into a valid program
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return whether {@code node} always has the same value because its operands are constant and it is pure */
+    private static boolean isConstant(Node node) {
+        if (node.OPCODE == Program.FUNCTION && !Functions.isPure(node.OPERAND)) return false;
+        for (Node operand : node.OPERANDS) {
+            if (operand.CONSTANT == null) return false;
+        }
+        return true;
+    }
+
+    /** @return whether the result of {@code node} is sure to need more digits than {@code EXACT}, so folding it would be wasted work */
+    private static boolean isInexact(Node node) {
+        return node.OPCODE == Program.FUNCTION && node.OPERAND == Functions.FACTORIAL && node.FIRST.CONSTANT.compareTo(MAX_FACTORIAL) > 0;
+    }
+
+    /**
+     * Folds {@code node} if all of its operands are constant, or removes it if it is an identity
+     * @param node the node to simplify, whose operands have already been simplified
+     * @return the simplified node
+     */
+    private static Node simplify(Node node) {
+        final Node FIRST = node.FIRST;
+        final Node SECOND = node.SECOND;
+
+        if (isConstant(node) && !isInexact(node)) {
+            try {
+                switch (node.OPCODE) {
+                    case Program.NEGATE:
+                        return Node.constant(FIRST.CONSTANT.negate());
+                    case Program.OPERATOR:
+                        return Node.constant(Expression.operation(FIRST.CONSTANT, SECOND.CONSTANT, (char)node.OPERAND, EXACT));
+                    case Program.FUNCTION:
+                        final BigDecimal[] ARGUMENTS = new BigDecimal[node.OPERANDS.length];
+                        for (int index = 0; index < ARGUMENTS.length; index++) {ARGUMENTS[index] = node.OPERANDS[index].CONSTANT;}
+                        return Node.constant(Functions.apply(node.OPERAND, EXACT, ARGUMENTS));
+                }
+            } catch (RuntimeException e) { //leave inexact and undefined results to be computed when the program is evaluated
+                return node;
+            }
+        }
+
+        if (node.OPCODE == Program.NEGATE) {
+            return (FIRST.OPCODE == Program.NEGATE) ? FIRST.FIRST : node;
+        } else if (node.OPCODE == Program.OPERATOR) {
+            switch ((char)node.OPERAND) {
+                case '*':
+                    if (SECOND.is(1)) {return FIRST;}
+                    if (FIRST.is(1)) {return SECOND;}
+                    break;
+                case '+':
+                    if (SECOND.is(0)) {return FIRST;}
+                    if (FIRST.is(0)) {return SECOND;}
+                    break;
+                case '/':
+                case '^':
+                    if (SECOND.is(1)) {return FIRST;}
+                    break;
+                case '-':
+                    if (SECOND.is(0)) {return FIRST;}
+                    break;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Adds the opcodes of {@code root} and its operands to {@code assembler} in postfix order.
+     * The tree is walked without recursion so long formulas cannot overflow the call stack.
+     */
+    private static void emit(Program.Assembler assembler, Node root) {
+        final Deque<Node> PENDING = new ArrayDeque<>();
+        final Deque<Node> POSTFIX = new ArrayDeque<>(); //the nodes in reverse postfix order
+
+        PENDING.push(root);
+        while (!PENDING.isEmpty()) {
+            Node node = PENDING.pop();
+            POSTFIX.push(node);
+
+            if (node.CONSTANT == null) {
+                for (Node operand : node.OPERANDS) {PENDING.push(operand);}
+            }
+        }
+
+        while (!POSTFIX.isEmpty()) {
+            Node node = POSTFIX.pop();
+
+            if (node.CONSTANT != null) {
+                assembler.number(node.CONSTANT);
+                continue;
+            }
+            switch (node.OPCODE) {
+                case Program.VARIABLE: assembler.variable(node.VARIABLE); break;
+                case Program.NEGATE: assembler.negate(); break;
+                case Program.OPERATOR: assembler.operator((char)node.OPERAND); break;
+                case Program.FUNCTION: assembler.function(node.OPERAND); break;
+                case Program.VECTOR: assembler.vector(node.OPERAND); break;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Raises {@link BigDecimal}s to {@link BigDecimal} powers to a given precision. Integer exponents
+ * are computed exactly by repeated squaring, with every intermediate result rounded to a few
+ * digits more than the requested precision, so the scale of the result never grows past what
+ * the precision needs. Other exponents are computed as {@code exp(y*ln(x))} with enough guard
+ * digits that the rounded result is correct to the requested precision, as are integer exponents
+ * too large to square up to, with the sign of a negative base taken from the exponent's parity.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#OPERATIONS
+ */
+abstract class Power {
+    // -- Attributes -- \\
+    private static final int GUARD = 10; //The extra digits intermediate results are kept to
+    private static final int DOUBLE_DIGITS = 14; //The most digits of a power Math.pow is trusted for
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    // -- Methods -- \\
+    /**
+     * Raises {@code base} to the power of {@code exponent}
+     * @param base the number to raise
+     * @param exponent the power to raise {@code base} to
+     * @param context the precision and rounding of the result, which may be {@link MathContext#UNLIMITED}
+     * if the result is exact
+     * @return {@code base^exponent} rounded to {@code context}
+     * @throws ArithmeticException if the power has no real value, is too large or small for a
+     * {@link BigDecimal}, or if {@code context} is unlimited and the power can't be represented exactly
+     */
+    static BigDecimal of(BigDecimal base, BigDecimal exponent, MathContext context) throws ArithmeticException {
+        if (base.signum() == 0 && exponent.signum() < 0) {throw new ArithmeticException("Divide by 0");}
+
+        if (isInteger(exponent) && exponent.abs().compareTo(BigDecimal.valueOf(999999999)) <= 0) {
+            final int POWER = exponent.intValueExact();
+
+            if (context.getPrecision() > 0) { //BigDecimal.pow needs more digits than the exponent has, which the guard digits always give it
+                final MathContext WORKING = new MathContext(context.getPrecision() + GUARD, context.getRoundingMode());
+                return base.pow(POWER, WORKING).round(context);
+            }
+            if (POWER >= 0) {return base.pow(POWER);}
+            return BigDecimal.ONE.divide(base.pow(-POWER)); //throws if the reciprocal doesn't terminate
+        }
+
+        if (base.signum() < 0) {
+            if (!isInteger(exponent)) {throw new ArithmeticException("Power of a negative number has no real value");}
+            final BigDecimal POWER = of(base.negate(), exponent, context); //an integer power too large to square up to
+            return isOdd(exponent) ? POWER.negate() : POWER;
+        }
+        if (base.signum() == 0) {return BigDecimal.ZERO;}
+        if (context.getPrecision() == 0) {throw new ArithmeticException("Non-terminating power; no exact representable decimal result.");}
+
+        //the power of ten of the result must fit the int scale of a BigDecimal
+        final double DECIMAL_EXPONENT = exponent.doubleValue() * logarithm(base) / Math.log(10);
+        if (Math.abs(DECIMAL_EXPONENT) >= Integer.MAX_VALUE) {throw new ArithmeticException((DECIMAL_EXPONENT > 0) ? "Power is too large" : "Power is too small");}
+
+        //the absolute error of y*ln(x) is the relative error of the result, so keep a digit for each of its whole digits
+        final double MAGNITUDE = Math.abs(exponent.doubleValue() * logarithm(base));
+        final int WHOLE_DIGITS = (MAGNITUDE > 1) ? (int)Math.ceil(Math.log10(MAGNITUDE)) : 0;
+        if (context.getPrecision() + WHOLE_DIGITS <= DOUBLE_DIGITS && MAGNITUDE < 700) { //small enough for Math.pow to be correct after rounding
+            return new BigDecimal(Math.pow(base.doubleValue(), exponent.doubleValue()), context);
+        }
+        final MathContext WORKING = new MathContext(context.getPrecision() + GUARD + WHOLE_DIGITS, RoundingMode.HALF_EVEN);
+
+        return exp(exponent.multiply(ln(base, WORKING), WORKING), WORKING).round(context);
+    }
+
+    private static boolean isInteger(BigDecimal number) {
+        return number.signum() == 0 || number.scale() <= 0 || number.stripTrailingZeros().scale() <= 0;
+    }
+
+    /** @return whether the integer {@code number} is odd, without expanding the zeros of a large power of ten */
+    private static boolean isOdd(BigDecimal number) {
+        final BigDecimal STRIPPED = number.stripTrailingZeros();
+        return STRIPPED.scale() == 0 && STRIPPED.unscaledValue().testBit(0); //a negative scale is a multiple of ten
+    }
+
+    /** @return an estimate of the natural logarithm of {@code number} that doesn't overflow for large or small numbers */
+    private static double logarithm(BigDecimal number) {
+        final int EXPONENT = number.precision() - number.scale() - 1;
+        return Math.log(number.movePointLeft(EXPONENT).doubleValue()) + EXPONENT*Math.log(10);
+    }
+
+    /**
+     * Calculates {@code e^number}
+     * @param number the power to raise {@code e} to
+     * @param context the precision of the result
+     * @return {@code e^number} to about the precision of {@code context}
+     * @throws ArithmeticException if the result is too large or small for a {@link BigDecimal}
+     */
+    static BigDecimal exp(BigDecimal number, MathContext context) throws ArithmeticException {
+        if (number.signum() == 0) {return BigDecimal.ONE;}
+
+        //halve the number until the series converges quickly, then square the sum back up
+        final double ESTIMATE = Math.abs(number.doubleValue());
+        final int HALVINGS = (ESTIMATE > 0x1p-8) ? Math.getExponent(ESTIMATE) + 9 : 0;
+        final MathContext WORKING = new MathContext(context.getPrecision() + GUARD + (int)(HALVINGS*0.302), RoundingMode.HALF_EVEN);
+        final BigDecimal REDUCED = (HALVINGS > 0) ? number.divide(TWO.pow(HALVINGS), WORKING) : number;
+        final BigDecimal EPSILON = BigDecimal.ONE.movePointLeft(WORKING.getPrecision());
+
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for (int index = 1; term.abs().compareTo(EPSILON) > 0; index++) {
+            term = term.multiply(REDUCED, WORKING).divide(BigDecimal.valueOf(index), WORKING);
+            sum = sum.add(term, WORKING);
+        }
+
+        for (int index = 0; index < HALVINGS; index++) {
+            sum = sum.multiply(sum, WORKING);
+        }
+        return sum.round(context);
+    }
+
+    /**
+     * Calculates the natural logarithm of {@code number}
+     * @param number the number to find the logarithm of
+     * @param context the precision of the result
+     * @return {@code ln(number)} to about the precision of {@code context}
+     * @throws ArithmeticException if {@code number} is not positive
+     */
+    static BigDecimal ln(BigDecimal number, MathContext context) throws ArithmeticException {
+        if (number.signum() <= 0) {throw new ArithmeticException("Logarithm of a number that isn't positive");}
+
+        //split the number into a mantissa between 1 and 10 and a power of 10, so ln(x) = ln(m) + k*ln(10)
+        final int EXPONENT = number.precision() - number.scale() - 1;
+        final MathContext WORKING = new MathContext(context.getPrecision() + GUARD + String.valueOf(Math.abs(EXPONENT)).length(), RoundingMode.HALF_EVEN);
+        final BigDecimal MANTISSA = number.movePointLeft(EXPONENT);
+
+        BigDecimal result = lnNear(MANTISSA, WORKING);
+        if (EXPONENT != 0) {
+            result = result.add(lnNear(BigDecimal.TEN, WORKING).multiply(BigDecimal.valueOf(EXPONENT), WORKING), WORKING);
+        }
+        return result.round(context);
+    }
+
+    /** Finds the logarithm of a number between 1 and 10 with Halley's iteration on {@code e^y = number} */
+    private static BigDecimal lnNear(BigDecimal number, MathContext context) {
+        BigDecimal result = new BigDecimal(Math.log(number.doubleValue()), context); //correct to about 15 digits
+
+        for (int digits = 15; digits < context.getPrecision(); digits *= 3) { //each step triples the number of correct digits
+            final BigDecimal POWER = exp(result, context);
+            result = result.add(number.subtract(POWER, context).multiply(TWO, context).divide(number.add(POWER, context), context), context);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,412 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, compiled form of an {@link Expression}. The expression text is parsed once
+ * into an array of opcodes in postfix order with its number literals already converted, so the
+ * program can be evaluated any number of times without any parsing cost. Programs compiled from
+ * a {@link Formula} refer to their variables by slot, and are given the variable values when
+ * they are evaluated. A program with a vector literal has no scalar value, so it can only be
+ * evaluated with the {@link VectorEvaluator}.
+ * <p>Programs are thread-safe. Nothing about a program changes after it is compiled, and the
+ * stacks it is evaluated on belong to the evaluating thread, so one program can be shared by any
+ * number of threads and evaluated by all of them at once without locking.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#compile()
+ */
+public final class Program {
+    // -- Attributes -- \\
+    static final byte NUMBER = 0; //Pushes the constant at the operand index
+    static final byte NEGATE = 1; //Negates the value on top of the stack
+    static final byte OPERATOR = 2; //Applies the operator character in the operand to the top two values
+    static final byte FUNCTION = 3; //Applies the function with the operand id in Functions to as many top values as its arity
+    static final byte VARIABLE = 4; //Pushes the value of the variable in the operand slot
+    static final byte VECTOR = 5; //Gathers the operand number of top values into a vector, which only VectorEvaluator can evaluate
+
+    private static final BigDecimal[] NO_VALUES = {};
+    private static final double[] NO_DOUBLE_VALUES = {};
+
+    /** The opcodes of the program in postfix order */
+    final byte[] CODE;
+    /** The operand of each opcode in {@code CODE} */
+    final int[] OPERANDS;
+    /** The number literals of the program */
+    final BigDecimal[] CONSTANTS;
+    /** The number literals of the program as {@code double} values */
+    final double[] DOUBLE_CONSTANTS;
+    /** The unscaled values of the number literals that fit in a {@code long} */
+    final long[] LONG_CONSTANTS;
+    /** The scales of the number literals, or {@link HybridEvaluator#PROMOTED} for those that don't fit in a {@code long} */
+    final int[] CONSTANT_SCALES;
+    /** The names of the variables of the program, in slot order */
+    final String[] VARIABLES;
+    /** The most values the stack holds at once while evaluating the program */
+    final int DEPTH;
+
+    /**
+     * The stack a thread evaluates {@code double} programs on. A function that evaluates another
+     * program while it is called takes the part of the stack above the program calling it, so
+     * nested evaluations on the same thread never overwrite each other.
+     */
+    private static final class Scratch {
+        double[] values = new double[64];
+        int used = 0; //The number of values taken by the evaluations in progress on the thread
+    }
+
+    /** The stack each thread reuses for {@link #evaluateDouble()}, so evaluating does not allocate or lock */
+    private static final ThreadLocal<Scratch> SCRATCHES = ThreadLocal.withInitial(Scratch::new);
+
+    // -- Constructors -- \\
+    /**
+     * Creates a {@link Program} from opcodes in postfix order
+     * @param code the opcodes of the program
+     * @param operands the operand of each opcode
+     * @param constants the number literals the {@code NUMBER} opcodes refer to
+     * @param variables the variable names the {@code VARIABLE} opcodes refer to
+     * @throws Exception if the opcodes do not form a single valid expression
+     */
+    private Program(byte[] code, int[] operands, BigDecimal[] constants, String[] variables) throws Exception {
+        CODE = code;
+        OPERANDS = operands;
+        CONSTANTS = constants;
+        VARIABLES = variables;
+        DOUBLE_CONSTANTS = new double[constants.length];
+        LONG_CONSTANTS = new long[constants.length];
+        CONSTANT_SCALES = new int[constants.length];
+        for (int index = 0; index < constants.length; index++) {
+            DOUBLE_CONSTANTS[index] = constants[index].doubleValue();
+            if (constants[index].precision() <= 18 && constants[index].scale() != HybridEvaluator.PROMOTED) { //any 18 digits fit in a long
+                LONG_CONSTANTS[index] = constants[index].unscaledValue().longValue();
+                CONSTANT_SCALES[index] = constants[index].scale();
+            } else {
+                CONSTANT_SCALES[index] = HybridEvaluator.PROMOTED;
+            }
+        }
+
+        DEPTH = depth(CODE, OPERANDS, CODE.length); //verify the program once so evaluating it can never underflow the stack
+        if (DEPTH < 0) {throw new Exception("Syntax");}
+    }
+
+    // -- Methods -- \\
+    /**
+     * Compiles {@code expression} into a {@link Program} that can be shared between threads,
+     * without keeping an {@link Expression} to edit
+     * @param expression the text of the expression
+     * @return the compiled program of the expression
+     * @throws Exception if the expression is incorrectly formatted
+     * @see Expression#compile()
+     */
+    public static Program compile(CharSequence expression) throws Exception {
+        return new Expression(expression).compile();
+    }
+
+    /**
+     * Finds the most values the stack holds at once while evaluating opcodes, checking that
+     * every opcode has its operands and that the opcodes leave exactly one value
+     * @param code the opcodes in postfix order
+     * @param operands the operand of each opcode
+     * @param length the number of opcodes
+     * @return the depth of the stack, or {@code -1-index} where {@code index} is the first opcode
+     * without its operands, or {@code length} if the opcodes don't leave exactly one value
+     */
+    private static int depth(byte[] code, int[] operands, int length) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int index = 0; index < length; index++) {
+            switch (code[index]) {
+                case NUMBER:
+                case VARIABLE:
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    break;
+                case OPERATOR:
+                    if (depth < 2) {return -1-index;}
+                    depth--;
+                    break;
+                case VECTOR:
+                    if (operands[index] < 1 || depth < operands[index]) {return -1-index;}
+                    depth += 1 - operands[index];
+                    break;
+                case FUNCTION:
+                    if (operands[index] < 0 || operands[index] >= Functions.size()) {return -1-index;}
+                    final int ARITY = Functions.arity(operands[index]);
+                    if (depth < ARITY) {return -1-index;}
+                    depth += 1 - ARITY;
+                    maxDepth = Math.max(maxDepth, depth);
+                    break;
+                default:
+                    if (depth < 1) {return -1-index;}
+            }
+        }
+        return (depth == 1) ? maxDepth : -1-length;
+    }
+
+    /** @return the number of opcodes in the program */
+    public int size() {
+        return CODE.length;
+    }
+
+    /**
+     * Gets the variables of the program in slot order, which is the order their values are
+     * given in when the program is evaluated
+     * @return a read-only {@link List} of the variable names
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(Arrays.asList(VARIABLES));
+    }
+
+    private void checkValues(int count) {
+        checkValues(count, VARIABLES);
+    }
+    /**
+     * Checks that a value was given for every variable, as the compiled backends do before evaluating
+     * @throws UnknownVariableException if there are fewer than {@code count} values
+     */
+    static void checkValues(int count, String[] variables) {
+        if (count < variables.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", variables[count]));
+        }
+    }
+
+    /**
+     * Evaluates the program to find the result, rounding every operation to {@link MathContext#DECIMAL128}
+     * @return the result of the program
+     * @throws ArithmeticException if an operation has no defined result
+     * @throws UnknownVariableException if the program has variables
+     */
+    public BigDecimal evaluate() throws ArithmeticException {
+        return evaluate(MathContext.DECIMAL128, NO_VALUES);
+    }
+    /**
+     * Evaluates the program to find the result, rounding every operation to {@link MathContext#DECIMAL128}
+     * @param values the values of the variables in slot order
+     * @return the result of the program
+     * @throws ArithmeticException if an operation has no defined result
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see #variables()
+     */
+    public BigDecimal evaluate(BigDecimal... values) throws ArithmeticException {
+        return evaluate(MathContext.DECIMAL128, values);
+    }
+    /**
+     * Evaluates the program to find the result, rounding every operation to {@code context}
+     * @param context the precision and rounding of each operation, which may be
+     * {@link MathContext#UNLIMITED} to keep every result exact
+     * @param values the values of the variables in slot order
+     * @return the result of the program
+     * @throws ArithmeticException if an operation has no defined result, or if {@code context} is
+     * unlimited and a result can't be represented exactly
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see #variables()
+     */
+    public BigDecimal evaluate(MathContext context, BigDecimal... values) throws ArithmeticException {
+        checkValues(values.length);
+        final BigDecimal[] stack = new BigDecimal[DEPTH];
+        int top = -1;
+
+        for (int index = 0; index < CODE.length; index++) {
+            switch (CODE[index]) {
+                case NUMBER:
+                    stack[++top] = CONSTANTS[OPERANDS[index]];
+                    break;
+                case VARIABLE:
+                    stack[++top] = values[OPERANDS[index]];
+                    break;
+                case NEGATE:
+                    stack[top] = stack[top].negate();
+                    break;
+                case OPERATOR:
+                    top--;
+                    stack[top] = Expression.operation(stack[top], stack[top+1], (char)OPERANDS[index], context);
+                    break;
+                case FUNCTION:
+                    final int ARITY = Functions.arity(OPERANDS[index]);
+                    if (ARITY == 1) {
+                        stack[top] = Functions.apply(OPERANDS[index], stack[top], context);
+                    } else {
+                        top -= ARITY-1;
+                        stack[top] = Functions.apply(OPERANDS[index], context, Arrays.copyOfRange(stack, top, top+ARITY));
+                    }
+                    break;
+                case VECTOR:
+                    throw notScalar();
+            }
+        }
+        return stack[0].round(context); //a constant, a variable, or a result the optimizer folded or kept exact
+    }
+
+    /**
+     * Evaluates the program using {@code double} arithmetic. This keeps 15 to 16 significant
+     * digits and only allocates to call functions that don't take exactly one argument, so it is
+     * much faster than {@link #evaluate()}.
+     * Dividing by {@code 0} throws like {@link #evaluate()} does, but any other undefined
+     * result, such as the square root of a negative number, is {@code NaN}.
+     * @return the result of the program
+     * @throws ArithmeticException if the program divides by {@code 0}
+     * @throws UnknownVariableException if the program has variables
+     */
+    public double evaluateDouble() throws ArithmeticException {
+        return evaluateDouble(NO_DOUBLE_VALUES);
+    }
+    /**
+     * Evaluates the program using {@code double} arithmetic
+     * @param values the values of the variables in slot order
+     * @return the result of the program
+     * @throws ArithmeticException if the program divides by {@code 0}
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see #evaluateDouble()
+     * @see #variables()
+     */
+    public double evaluateDouble(double... values) throws ArithmeticException {
+        checkValues(values.length);
+        final Scratch SCRATCH = SCRATCHES.get();
+        final int BASE = SCRATCH.used;
+        if (SCRATCH.values.length < BASE + DEPTH) { //evaluations in progress keep the array they started with
+            SCRATCH.values = new double[Math.max(BASE + DEPTH, SCRATCH.values.length*2)];
+        }
+        final double[] stack = SCRATCH.values;
+        SCRATCH.used = BASE + DEPTH;
+        int top = BASE-1;
+
+        try {
+            evaluate(stack, top, values);
+        } finally {
+            SCRATCH.used = BASE;
+        }
+        return stack[BASE];
+    }
+
+    /** Evaluates the program in {@code double} arithmetic on {@code stack} above {@code top} */
+    private void evaluate(double[] stack, int top, double[] values) throws ArithmeticException {
+        for (int index = 0; index < CODE.length; index++) {
+            switch (CODE[index]) {
+                case NUMBER:
+                    stack[++top] = DOUBLE_CONSTANTS[OPERANDS[index]];
+                    break;
+                case VARIABLE:
+                    stack[++top] = values[OPERANDS[index]];
+                    break;
+                case NEGATE:
+                    stack[top] = -stack[top];
+                    break;
+                case OPERATOR:
+                    top--;
+                    stack[top] = Expression.operation(stack[top], stack[top+1], (char)OPERANDS[index]);
+                    break;
+                case FUNCTION:
+                    final int ARITY = Functions.arity(OPERANDS[index]);
+                    if (ARITY == 1) {
+                        stack[top] = Functions.apply(OPERANDS[index], stack[top]);
+                    } else {
+                        top -= ARITY-1;
+                        stack[top] = Functions.apply(OPERANDS[index], Arrays.copyOfRange(stack, top, top+ARITY));
+                    }
+                    break;
+                case VECTOR:
+                    throw notScalar();
+            }
+        }
+    }
+
+    /** @return the error of evaluating a program with a vector in scalar arithmetic */
+    static ArithmeticException notScalar() {
+        return new ArithmeticException("Vector has no scalar value");
+    }
+
+    /** @return the program in postfix notation, with the opcodes separated by spaces */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int index = 0; index < CODE.length; index++) {
+            if (index > 0) {builder.append(' ');}
+
+            switch (CODE[index]) {
+                case NUMBER: builder.append(CONSTANTS[OPERANDS[index]]); break;
+                case NEGATE: builder.append('#'); break;
+                case OPERATOR: builder.append((char)OPERANDS[index]); break;
+                case FUNCTION: builder.append(Functions.name(OPERANDS[index])); break;
+                case VARIABLE: builder.append(VARIABLES[OPERANDS[index]]); break;
+                case VECTOR: builder.append('<').append(OPERANDS[index]).append('>'); break;
+            }
+        }
+        return builder.toString();
+    }
+
+    /** Collects opcodes in postfix order to assemble a {@link Program} */
+    static final class Assembler {
+        private byte[] code = new byte[16];
+        private int[] operands = new int[16];
+        private int[] positions = new int[16]; //The index in the text each opcode came from
+        private int size = 0;
+        private int position = 0;
+        private final List<BigDecimal> CONSTANTS = new ArrayList<>();
+        private final List<String> VARIABLES = new ArrayList<>();
+
+        Assembler() {}
+        /** @param variables the variables to give the first slots, in slot order */
+        Assembler(List<String> variables) {
+            VARIABLES.addAll(variables);
+        }
+
+        private void emit(byte opcode, int operand) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size*2);
+                operands = Arrays.copyOf(operands, size*2);
+                positions = Arrays.copyOf(positions, size*2);
+            }
+            code[size] = opcode;
+            positions[size] = position;
+            operands[size++] = operand;
+        }
+
+        /** @return whether no opcodes have been emitted */
+        boolean isEmpty() {return size == 0;}
+
+        /** Sets the index in the text the opcodes emitted next come from, which errors are reported at */
+        void at(int position) {
+            this.position = position;
+        }
+
+        void number(BigDecimal number) {
+            emit(NUMBER, CONSTANTS.size());
+            CONSTANTS.add(number);
+        }
+        void negate() {emit(NEGATE, 0);}
+        void operator(char operator) {emit(OPERATOR, operator);}
+        void function(int function) {emit(FUNCTION, function);}
+        void vector(int size) {emit(VECTOR, size);}
+        void variable(String variable) {
+            int slot = VARIABLES.indexOf(variable);
+            if (slot == -1) {
+                slot = VARIABLES.size();
+                VARIABLES.add(variable);
+            }
+            emit(VARIABLE, slot);
+        }
+
+        /**
+         * Checks the opcodes form a single valid expression without assembling them
+         * @param end the index in the text after the last opcode, where leftover values are reported
+         * @return {@code -1} if the opcodes are valid, the index in the text of the first opcode
+         * without its operands, or {@code end} if the opcodes don't leave exactly one value
+         * @see #assemble()
+         */
+        int check(int end) {
+            final int DEPTH = depth(code, operands, size);
+            if (DEPTH >= 0) return -1;
+            return (DEPTH == -1-size) ? end : positions[-1-DEPTH];
+        }
+
+        /**
+         * @return the assembled program
+         * @throws Exception if the opcodes do not form a single valid expression
+         */
+        Program assemble() throws Exception {
+            return new Program(Arrays.copyOf(code, size), Arrays.copyOf(operands, size), CONSTANTS.toArray(new BigDecimal[0]), VARIABLES.toArray(new String[0]));
+        }
+    }
+}
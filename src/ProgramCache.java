@@ -0,0 +1,209 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache from expression text to its compiled {@link Program}. Entries
+ * are evicted least recently used first once the cache is full. The cache is split into
+ * segments with their own locks, so threads looking up different expressions rarely contend.
+ * <p>{@link Expression#compile()} looks expressions up in the {@link #shared()} cache, so an
+ * expression text is only parsed once no matter how many {@link Expression} objects are created
+ * for it. The size of the shared cache is set with the {@code expression.cache.size} system
+ * property, and defaults to {@value #DEFAULT_SIZE}.
+ * <p>Expressions are looked up by their text with its whitespace ignored, as the parser ignores
+ * it. A lookup reads the text in place, so only an expression that is added to the cache is
+ * copied into a {@link String}.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#compile()
+ */
+public final class ProgramCache {
+    // -- Attributes -- \\
+    public static final int DEFAULT_SIZE = 1024;
+    private static final int SEGMENTS = 16; //Must be a power of two
+
+    private static final ProgramCache SHARED = new ProgramCache(Integer.getInteger("expression.cache.size", DEFAULT_SIZE));
+
+    /** Expression text as a key, which is hashed and compared without its whitespace */
+    private static final class Key {
+        private final CharSequence TEXT; //A normalized String for the keys in the cache, or the text being looked up
+        private final int HASH;
+
+        Key(CharSequence text) {
+            TEXT = text;
+            int hash = 0;
+            for (int index = 0; index < text.length(); index++) {
+                if (!Character.isWhitespace(text.charAt(index))) {hash = 31*hash + text.charAt(index);}
+            }
+            HASH = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return HASH;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            final Key OTHER = (Key)obj;
+            if (HASH != OTHER.HASH) return false;
+
+            int index = 0, otherIndex = 0;
+            while (true) {
+                while (index < TEXT.length() && Character.isWhitespace(TEXT.charAt(index))) {index++;}
+                while (otherIndex < OTHER.TEXT.length() && Character.isWhitespace(OTHER.TEXT.charAt(otherIndex))) {otherIndex++;}
+                if (index == TEXT.length() || otherIndex == OTHER.TEXT.length()) return index == TEXT.length() && otherIndex == OTHER.TEXT.length();
+                if (TEXT.charAt(index++) != OTHER.TEXT.charAt(otherIndex++)) return false;
+            }
+        }
+    }
+
+    /** A least recently used map guarded by its own lock */
+    private final class Segment extends LinkedHashMap<Key, Program> {
+        private static final long serialVersionUID = 2358316428593702671L;
+        private final int CAPACITY;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            CAPACITY = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Program> eldest) {
+            if (size() <= CAPACITY) return false;
+            EVICTIONS.increment();
+            return true;
+        }
+    }
+
+    private final Segment[] TABLE = new Segment[SEGMENTS];
+    private final int MAXIMUM_SIZE;
+
+    private final LongAdder HITS = new LongAdder();
+    private final LongAdder MISSES = new LongAdder();
+    private final LongAdder EVICTIONS = new LongAdder();
+
+    // -- Constructors -- \\
+    /**
+     * Creates an empty {@link ProgramCache}
+     * @param maximumSize the most programs the cache holds at once
+     * @throws IllegalArgumentException if {@code maximumSize} is negative
+     */
+    public ProgramCache(int maximumSize) {
+        if (maximumSize < 0) {throw new IllegalArgumentException(String.format("Illegal maximum size: %d", maximumSize));}
+        MAXIMUM_SIZE = maximumSize;
+
+        for (int index = 0; index < SEGMENTS; index++) { //spread the size over the segments, giving the remainder to the first ones
+            TABLE[index] = new Segment(maximumSize/SEGMENTS + ((index < maximumSize%SEGMENTS) ? 1 : 0));
+        }
+    }
+
+    // -- Methods -- \\
+    /** @return the cache {@link Expression#compile()} uses */
+    public static ProgramCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Normalizes expression text into the form the cache keeps it in, which is the text without
+     * its whitespace, since the parser ignores whitespace
+     * @param seq the expression text
+     * @return the normalized text
+     */
+    public static String normalize(CharSequence seq) {
+        final StringBuilder KEY = new StringBuilder(seq.length());
+        for (int index = 0; index < seq.length(); index++) {
+            if (!Character.isWhitespace(seq.charAt(index))) {KEY.append(seq.charAt(index));}
+        }
+        return KEY.toString();
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hashCode();
+        return TABLE[(hash ^ (hash >>> 16)) & (SEGMENTS-1)];
+    }
+
+    /**
+     * Gets the compiled program of an expression, reading its text in place
+     * @param expression the expression text, which is matched with its whitespace ignored
+     * @return the cached program, or {@code null} if the cache doesn't contain {@code expression}
+     */
+    public Program get(CharSequence expression) {
+        final Key KEY = new Key(expression);
+        final Segment SEGMENT = segment(KEY);
+        final Program PROGRAM;
+        synchronized (SEGMENT) {
+            PROGRAM = SEGMENT.get(KEY);
+        }
+
+        if (PROGRAM == null) {MISSES.increment();} else {HITS.increment();}
+        return PROGRAM;
+    }
+
+    /**
+     * Caches the compiled program of an expression, keeping a normalized copy of its text
+     * @param expression the expression text
+     * @param program the compiled program of the text
+     * @see #normalize(CharSequence)
+     */
+    public void put(CharSequence expression, Program program) {
+        final Key KEY = new Key(normalize(expression));
+        final Segment SEGMENT = segment(KEY);
+        synchronized (SEGMENT) {
+            SEGMENT.put(KEY, program);
+        }
+    }
+
+    /** Removes every program from the cache. The statistics are kept. */
+    public void clear() {
+        for (Segment segment : TABLE) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /** @return the number of programs in the cache */
+    public int size() {
+        int size = 0;
+        for (Segment segment : TABLE) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** @return the most programs the cache holds at once */
+    public int maximumSize() {
+        return MAXIMUM_SIZE;
+    }
+
+    /** @return the number of lookups that found a cached program */
+    public long hits() {
+        return HITS.sum();
+    }
+
+    /** @return the number of lookups that did not find a cached program */
+    public long misses() {
+        return MISSES.sum();
+    }
+
+    /** @return the number of programs removed to keep the cache within its maximum size */
+    public long evictions() {
+        return EVICTIONS.sum();
+    }
+
+    /** @return the fraction of lookups that found a cached program, or {@code 0} if there were none */
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return (total == 0) ? 0 : (double)hits/total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProgramCache[size=%d/%d, hits=%d, misses=%d, evictions=%d]", size(), MAXIMUM_SIZE, hits(), misses(), evictions());
+    }
+}
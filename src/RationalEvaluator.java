@@ -0,0 +1,153 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Evaluates a compiled {@link Program} in exact rational arithmetic, so {@code 1/3*3} is exactly
+ * {@code 1} rather than {@code 0.999...}. Every value on the stack is a {@link Fraction}, which
+ * keeps its numerator and denominator as {@code long}s while they fit and only falls back to
+ * {@link BigInteger}s when they would overflow. Decimal constants and variables are
+ * converted to the fraction of their exact value, and the result is only rounded to a decimal if
+ * it is asked for with {@link Fraction#toBigDecimal(MathContext)}.
+ * <p>Addition, subtraction, multiplication, division, remainders, scientific notation, powers
+ * with a whole exponent, {@code abs}, the factorials of whole numbers, the bitwise operators
+ * and functions, and the vector functions of scalars are exact. Every other power and function
+ * generally has an irrational result, so it is computed as it is by
+ * {@link Program#evaluate(MathContext, BigDecimal...)} with {@link MathContext#DECIMAL128}, and
+ * the rest of the evaluation continues exactly from that decimal.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#evaluateFraction()
+ */
+public abstract class RationalEvaluator {
+    // -- Attributes -- \\
+    private static final MathContext CONTEXT = MathContext.DECIMAL128; //The precision of the results that can't be exact
+    private static final Fraction TEN = Fraction.of(10, 1);
+
+    // -- Methods -- \\
+    /**
+     * Evaluates {@code program} exactly
+     * @param program the program to evaluate
+     * @param values the values of the variables in slot order
+     * @return the exact result of the program
+     * @throws ArithmeticException if an operation has no defined result
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see Program#variables()
+     */
+    public static Fraction evaluate(Program program, BigDecimal... values) throws ArithmeticException {
+        if (values.length < program.VARIABLES.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", program.VARIABLES[values.length]));
+        }
+
+        final Fraction[] STACK = new Fraction[program.DEPTH];
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            final int OPERAND = program.OPERANDS[index];
+
+            switch (program.CODE[index]) {
+                case Program.NUMBER:
+                    STACK[++top] = Fraction.valueOf(program.CONSTANTS[OPERAND]);
+                    break;
+                case Program.VARIABLE:
+                    STACK[++top] = Fraction.valueOf(values[OPERAND]);
+                    break;
+                case Program.NEGATE:
+                    STACK[top] = STACK[top].negate();
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    STACK[top] = operation(STACK[top], STACK[top+1], (char)OPERAND);
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(OPERAND);
+                    if (ARITY == 1) {
+                        STACK[top] = function(OPERAND, STACK[top]);
+                    } else if (OPERAND == Functions.DOT) {
+                        top--;
+                        STACK[top] = STACK[top].multiply(STACK[top+1]);
+                    } else if (ARITY == 2 && bitwise(OPERAND) > -1) {
+                        top--;
+                        STACK[top] = bitwise(bitwise(OPERAND), STACK[top], STACK[top+1]);
+                    } else {
+                        final BigDecimal[] ARGUMENTS = new BigDecimal[ARITY];
+                        top -= ARITY-1;
+                        for (int argument = 0; argument < ARITY; argument++) {ARGUMENTS[argument] = STACK[top + argument].toBigDecimal(CONTEXT);}
+                        STACK[top] = Fraction.valueOf(Functions.apply(OPERAND, CONTEXT, ARGUMENTS));
+                    }
+                    break;
+                case Program.VECTOR:
+                    throw Program.notScalar();
+            }
+        }
+        return STACK[0];
+    }
+
+    /**
+     * Applies {@code operator} to {@code first} and {@code second}
+     * @return the result of the operation, which is exact unless it is a power with a fractional exponent
+     * @throws ArithmeticException if the operation divides by {@code 0}
+     */
+    static Fraction operation(Fraction first, Fraction second, char operator) throws ArithmeticException {
+        switch (operator) {
+            case 'e': //the exponent is truncated to an integer, as it is for decimals
+                return first.multiply(TEN.pow(second.intValue()));
+            case '^':
+                if (second.isInteger() && second.numerator().bitLength() < 32) {return first.pow(second.intValue());}
+                return Fraction.valueOf(Power.of(first.toBigDecimal(CONTEXT), second.toBigDecimal(CONTEXT), CONTEXT));
+            case '*':
+                return first.multiply(second);
+            case '/':
+                return first.divide(second);
+            case '%':
+                return first.remainder(second);
+            case '+':
+                return first.add(second);
+            case '-':
+                return first.subtract(second);
+            case '&':
+                return bitwise(Bitwise.AND, first, second);
+            case '|':
+                return bitwise(Bitwise.OR, first, second);
+        }
+        throw new IllegalArgumentException(String.format("Unknown operator '%c'", operator));
+    }
+
+    /** @return the bitwise operation of the function with the id {@code id}, or {@code -1} if it isn't a bitwise function */
+    private static int bitwise(int id) {
+        switch (id) {
+            case Functions.XOR: return Bitwise.XOR;
+            case Functions.SHL: return Bitwise.SHIFT_LEFT;
+            case Functions.SHR: return Bitwise.SHIFT_RIGHT;
+        }
+        return -1;
+    }
+
+    /**
+     * Applies a bitwise operation to two whole numbers
+     * @param operation the operation, such as {@link Bitwise#AND}
+     * @throws ArithmeticException if an operand isn't a whole number
+     */
+    private static Fraction bitwise(int operation, Fraction first, Fraction second) throws ArithmeticException {
+        if (!first.isInteger() || !second.isInteger()) {throw new ArithmeticException("Bitwise operand is not an integer");}
+        return Fraction.of(Bitwise.apply(operation, first.numerator(), second.numerator()), BigInteger.ONE);
+    }
+
+    /**
+     * Applies a function of one argument to {@code value}
+     * @return the result of the function, which is exact for {@code abs}, {@code norm}, {@code sum} and the factorials of whole numbers
+     */
+    private static Fraction function(int id, Fraction value) throws ArithmeticException {
+        switch (id) {
+            case Functions.ABS:
+            case Functions.NORM:
+                return value.abs();
+            case Functions.SUM:
+                return value;
+            case Functions.FACTORIAL:
+                if (value.isInteger()) {return Fraction.of(Factorial.of(value.numerator().intValueExact()), BigInteger.ONE);}
+                break;
+        }
+        return Fraction.valueOf(Functions.apply(id, value.toBigDecimal(CONTEXT), CONTEXT));
+    }
+}
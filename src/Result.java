@@ -0,0 +1,111 @@
+import java.math.BigDecimal;
+
+/**
+ * The outcome of validating or evaluating an {@link Expression} without throwing. A failed
+ * result has the kind of error and the index in the text where it was found, so malformed input
+ * can be rejected without the cost of building an exception and its stack trace.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression#validate()
+ * @see Expression#tryEvaluate()
+ */
+public final class Result {
+    // -- Attributes -- \\
+    /** The kinds of error an expression can have */
+    public enum Kind {
+        /** The expression is valid */
+        NONE(null),
+        /** The expression has no characters */
+        EMPTY("Null expression"),
+        /** A number has no digits or more than one decimal point */
+        INVALID_NUMBER("Syntax"),
+        /** A name is not a registered function */
+        UNKNOWN_NAME("Syntax"),
+        /** A closing bracket or comma has no opening bracket, or an opening bracket is never closed */
+        UNBALANCED_BRACKETS("Syntax"),
+        /** An operator or function has fewer operands than it takes */
+        MISSING_OPERAND("Syntax"),
+        /** Values are left over that no operator combines */
+        EXTRA_OPERAND("Syntax"),
+        /** The expression is valid but has no defined result, such as dividing by {@code 0} */
+        UNDEFINED(null);
+
+        /** The message of the exception the throwing methods report this error with */
+        final String MESSAGE;
+
+        Kind(String message) {
+            MESSAGE = message;
+        }
+    }
+
+    private static final Result VALID = new Result(Kind.NONE, -1, null, null);
+
+    private final Kind ERROR;
+    private final int POSITION;
+    private final BigDecimal VALUE;
+    private final String MESSAGE;
+
+    // -- Constructors -- \\
+    private Result(Kind error, int position, BigDecimal value, String message) {
+        ERROR = error;
+        POSITION = position;
+        VALUE = value;
+        MESSAGE = message;
+    }
+
+    // -- Methods -- \\
+    /** @return a successful result without a value, as validating returns */
+    static Result valid() {
+        return VALID;
+    }
+    /** @return a successful result with the value {@code value} */
+    static Result of(BigDecimal value) {
+        return new Result(Kind.NONE, -1, value, null);
+    }
+    /** @return a failed result for {@code error} at {@code position} */
+    static Result failure(Kind error, int position) {
+        return new Result(error, position, null, error.MESSAGE);
+    }
+    /** @return a failed result for an operation with no defined result, described by {@code message} */
+    static Result undefined(String message) {
+        return new Result(Kind.UNDEFINED, -1, null, message);
+    }
+
+    /** @return whether the expression was valid and, if it was evaluated, had a result */
+    public boolean isValid() {
+        return ERROR == Kind.NONE;
+    }
+
+    /** @return the kind of error, or {@link Kind#NONE} if the result is valid */
+    public Kind error() {
+        return ERROR;
+    }
+
+    /**
+     * @return the index in the expression of the character where the error was found, which is
+     * the length of the expression if it ended too soon, or {@code -1} if the error has no
+     * position or the result is valid
+     */
+    public int position() {
+        return POSITION;
+    }
+
+    /**
+     * @return the result of the evaluated expression, or {@code null} if the result isn't valid
+     * or the expression was only validated
+     */
+    public BigDecimal value() {
+        return VALUE;
+    }
+
+    /** @return the message describing the error, the same as the throwing methods use, or {@code null} if the result is valid */
+    public String message() {
+        return MESSAGE;
+    }
+
+    @Override
+    public String toString() {
+        if (isValid()) {return (VALUE == null) ? "Valid" : VALUE.toString();}
+        return (POSITION < 0) ? String.format("%s: %s", ERROR, MESSAGE) : String.format("%s at %d: %s", ERROR, POSITION, MESSAGE);
+    }
+}
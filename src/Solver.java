@@ -0,0 +1,165 @@
+/**
+ * Finds where a compiled {@link Program} of one variable equals a target value. The solver starts
+ * with Newton's method, taking the derivative of the program from the {@link Differentiator} in
+ * the same pass as its value, which converges in a few steps near a simple root. As soon as two
+ * points on opposite sides of the root are known, or Newton's method stalls on a flat or
+ * undefined derivative, it switches to Brent's method, which can't fail once the root is
+ * bracketed. If Newton's method never crosses the root, a bracket is searched for by stepping out
+ * from the starting guess in growing steps.
+ * <p>The program is evaluated in {@code double} arithmetic, so solutions are found to about
+ * {@code double} precision.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Formula#solveFor(String, double)
+ */
+abstract class Solver {
+    // -- Attributes -- \\
+    private static final int NEWTON_STEPS = 50; //The most steps of Newton's method before searching for a bracket
+    private static final int BRENT_STEPS = 200; //The most steps of Brent's method
+    private static final int EXPANSIONS = 64; //The most times the bracket search doubles its step
+    private static final double TOLERANCE = 4 * Math.ulp(1.0); //The relative distance between points that counts as converged
+
+    // -- Methods -- \\
+    /**
+     * Finds a value of the variable of {@code program} where it equals {@code target}
+     * @param program a program with at most one variable
+     * @param target the value the program should equal
+     * @param guess where to start looking for the solution
+     * @return the value of the variable closest to {@code guess} that is found to solve the equation
+     * @throws ArithmeticException if no solution is found
+     */
+    static double solve(Program program, double target, double guess) throws ArithmeticException {
+        final double[] DERIVATIVE = new double[1];
+        double x = guess;
+        double fx = value(program, target, x, DERIVATIVE);
+        if (fx == 0) return x;
+
+        double negative = Double.NaN, positive = Double.NaN; //points on each side of the root
+        for (int step = 0; step < NEWTON_STEPS && !Double.isNaN(fx); step++) {
+            if (fx < 0) {negative = x;} else {positive = x;}
+            if (!Double.isNaN(negative) && !Double.isNaN(positive)) {return brent(program, target, negative, positive);}
+
+            final double NEXT = x - fx / DERIVATIVE[0];
+            if (Double.isNaN(NEXT) || Double.isInfinite(NEXT) || Double.isInfinite(DERIVATIVE[0])) break; //a flat, vertical or undefined derivative
+
+            final boolean CONVERGED = Math.abs(NEXT - x) <= TOLERANCE * Math.max(1, Math.abs(NEXT));
+            final double PREVIOUS = fx;
+            x = NEXT;
+            fx = value(program, target, x, DERIVATIVE);
+            if (fx == 0 || (CONVERGED && Math.abs(fx) <= Math.abs(PREVIOUS))) return x;
+        }
+
+        return bracket(program, target, guess);
+    }
+
+    /**
+     * Evaluates {@code program - target} at {@code x}
+     * @param derivative where to store the derivative at {@code x}
+     * @return the difference from the target, or {@code NaN} if the program has no defined result at {@code x}
+     */
+    private static double value(Program program, double target, double x, double[] derivative) {
+        try {
+            return Differentiator.evaluate(program, derivative, x) - target;
+        } catch (ArithmeticException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** Evaluates {@code program - target} at {@code x} without its derivative */
+    private static double value(Program program, double target, double x) {
+        try {
+            return program.evaluateDouble(x) - target;
+        } catch (ArithmeticException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Searches both ways from {@code guess} in doubling steps for two points on opposite sides
+     * of the root, then solves between them
+     * @throws ArithmeticException if no bracket is found
+     */
+    private static double bracket(Program program, double target, double guess) throws ArithmeticException {
+        double step = 0.01 * Math.max(1, Math.abs(guess));
+        double low = guess, high = guess;
+        double fLow = value(program, target, guess), fHigh = fLow;
+
+        for (int expansion = 0; expansion < EXPANSIONS; expansion++, step *= 2) {
+            final double NEXT_HIGH = guess + step;
+            final double F_NEXT_HIGH = value(program, target, NEXT_HIGH);
+            if (F_NEXT_HIGH == 0) return NEXT_HIGH;
+            if (F_NEXT_HIGH * fHigh < 0) {return brent(program, target, high, NEXT_HIGH);}
+            high = NEXT_HIGH;
+            fHigh = F_NEXT_HIGH;
+
+            final double NEXT_LOW = guess - step;
+            final double F_NEXT_LOW = value(program, target, NEXT_LOW);
+            if (F_NEXT_LOW == 0) return NEXT_LOW;
+            if (F_NEXT_LOW * fLow < 0) {return brent(program, target, NEXT_LOW, low);}
+            low = NEXT_LOW;
+            fLow = F_NEXT_LOW;
+        }
+        throw new ArithmeticException("No solution found");
+    }
+
+    /**
+     * Solves between two points on opposite sides of the root with Brent's method, which combines
+     * inverse quadratic interpolation and the secant method with bisection whenever they don't
+     * shrink the bracket fast enough
+     * @throws ArithmeticException if the bracket contains a point with no defined result
+     */
+    private static double brent(Program program, double target, double a, double b) throws ArithmeticException {
+        double fa = value(program, target, a);
+        double fb = value(program, target, b);
+        double c = a, fc = fa;
+        double d = b - a, e = d;
+
+        for (int step = 0; step < BRENT_STEPS; step++) {
+            if (Double.isNaN(fb)) {throw new ArithmeticException("No solution found");}
+            if (fb * fc > 0) { //keep the root between b and c
+                c = a;
+                fc = fa;
+                d = e = b - a;
+            }
+            if (Math.abs(fc) < Math.abs(fb)) { //keep b the best estimate
+                a = b; b = c; c = a;
+                fa = fb; fb = fc; fc = fa;
+            }
+
+            final double LIMIT = 2 * TOLERANCE * Math.max(1, Math.abs(b)); //how close b has to be to the root
+            final double MIDDLE = (c - b) / 2;
+            if (Math.abs(MIDDLE) <= LIMIT || fb == 0) return b;
+
+            if (Math.abs(e) >= LIMIT && Math.abs(fa) > Math.abs(fb)) {
+                double p, q;
+                final double S = fb / fa;
+                if (a == c) { //secant
+                    p = 2 * MIDDLE * S;
+                    q = 1 - S;
+                } else { //inverse quadratic interpolation
+                    final double Q = fa / fc, R = fb / fc;
+                    p = S * (2 * MIDDLE * Q * (Q - R) - (b - a) * (R - 1));
+                    q = (Q - 1) * (R - 1) * (S - 1);
+                }
+                if (p > 0) {q = -q;} else {p = -p;}
+
+                if (2 * p < Math.min(3 * MIDDLE * q - Math.abs(LIMIT * q), Math.abs(e * q))) { //the interpolation is inside the bracket and converging
+                    e = d;
+                    d = p / q;
+                } else {
+                    d = MIDDLE;
+                    e = d;
+                }
+            } else {
+                d = MIDDLE;
+                e = d;
+            }
+
+            a = b;
+            fa = fb;
+            b += (Math.abs(d) > LIMIT) ? d : Math.copySign(LIMIT, MIDDLE);
+            fb = value(program, target, b);
+        }
+        return b;
+    }
+}
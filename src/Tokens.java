@@ -0,0 +1,398 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * The token stream of an {@link Evaluator}'s text, kept up to date as the text is edited. Each
+ * edit only re-lexes the tokens around the changed range, then splices the new tokens into the
+ * stream in place of the old ones, so the cost of an edit scales with the size of the edit
+ * rather than the size of the text.
+ * <p>A token is a run of number characters, a name, or a single symbol. Names are runs of
+ * letters, except that {@code e} on its own is the scientific notation operator. A number that
+ * starts with {@code 0x}, {@code 0b} or {@code 0o} is a hexadecimal, binary or octal integer, and
+ * runs on through the letters and digits after its prefix. Whitespace is ignored, as if it had
+ * been removed from the text, so a run can carry on past it: {@code 1 000} is one number and
+ * {@code s in} is the name {@code sin}.
+ * <p>Tokens are only offsets into the text, which is read in place. ASCII characters are
+ * classified with a lookup table, and the text of names is only copied into {@link String}s
+ * when the stream is created to keep them, so lexing doesn't allocate once the stream's arrays
+ * have grown to fit the text.
+ * <p>The tokens are kept in a gap buffer, with the gap where the last edit was. The tokens
+ * before the gap keep their offsets from the start of the text and the tokens after it keep
+ * their offsets from the end, so an edit never has to shift the offsets of the tokens after it,
+ * and only the tokens between one edit and the next are moved.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Expression
+ * @see Formula
+ */
+final class Tokens {
+    // -- Attributes -- \\
+    static final byte NUMBER = 0; //A run of digits and decimal points, or a radix literal
+    static final byte NAME = 1; //A run of letters
+    static final byte SYMBOL = 2; //Any other single character
+
+    private static final byte WHITESPACE = 3; //The character class of whitespace, which isn't a token
+    private static final byte SPACED = 4; //Added to the kind of a token with whitespace inside it
+    /** The character class of each ASCII character */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        Arrays.fill(CLASSES, SYMBOL);
+        for (char ch = '0'; ch <= '9'; ch++) {CLASSES[ch] = NUMBER;}
+        CLASSES['.'] = NUMBER;
+        for (char ch = 'a'; ch <= 'z'; ch++) {CLASSES[ch] = NAME;}
+        for (char ch = 'A'; ch <= 'Z'; ch++) {CLASSES[ch] = NAME;}
+        for (char ch = 0; ch < 128; ch++) {
+            if (Character.isWhitespace(ch)) {CLASSES[ch] = WHITESPACE;}
+        }
+    }
+
+    /** Notified of the names an edit removes from and adds to the stream */
+    interface Listener {
+        void added(String name);
+        void removed(String name);
+    }
+
+    //The tokens before the gap, then the gap, then the tokens after it at the end of the arrays
+    private byte[] kinds = new byte[16];
+    private int[] starts = new int[16]; //The start of each token, from the end of the text for the tokens after the gap
+    private int[] ends = new int[16]; //The end of each token, from the end of the text for the tokens after the gap
+    private String[] names = new String[16]; //The text of each NAME token if names are kept, otherwise null
+    private int size = 0;
+    private int gap = 0; //The index of the first token after the gap
+    private int length = 0; //The length of the text, which the offsets after the gap are from
+    private final boolean KEEP_NAMES;
+
+    //The tokens an edit re-lexes, reused by every edit
+    private byte[] newKinds = new byte[4];
+    private int[] newStarts = new int[4];
+    private int[] newEnds = new int[4];
+    private String[] newNames = new String[4];
+
+    // -- Constructors -- \\
+    /**
+     * Creates an empty token stream
+     * @param keepNames whether to keep the text of every name, which is needed to notify a {@link Listener}
+     */
+    Tokens(boolean keepNames) {
+        KEEP_NAMES = keepNames;
+    }
+
+    // -- Methods -- \\
+    /** @return the number of tokens in the stream */
+    int size() {return size;}
+    /** @return the kind of the token at {@code index} */
+    byte kind(int index) {return (byte)(kinds[slot(index)] & ~SPACED);}
+    /** @return whether the token at {@code index} has whitespace inside it, which {@link #compact} removes */
+    boolean isSpaced(int index) {return (kinds[slot(index)] & SPACED) != 0;}
+    /** @return the index in the text of the first character of the token at {@code index} */
+    int start(int index) {return (index < gap) ? starts[index] : starts[slot(index)] + length;}
+    /** @return the index in the text after the last character of the token at {@code index} */
+    int end(int index) {return (index < gap) ? ends[index] : ends[slot(index)] + length;}
+    /** @return the text of the {@code NAME} token at {@code index}, or {@code null} if names are not kept */
+    String name(int index) {return names[slot(index)];}
+
+    /** @return the index in the arrays of the token at {@code index}, past the gap if it is after it */
+    private int slot(int index) {
+        return (index < gap) ? index : index + kinds.length - size;
+    }
+
+    /** @return the character class of {@code ch}, which is its token kind or {@code WHITESPACE} */
+    private static byte classOf(char ch) {
+        if (ch < 128) return CLASSES[ch];
+        if (Character.isWhitespace(ch)) return WHITESPACE;
+        return Character.isLetter(ch) ? NAME : SYMBOL;
+    }
+
+    /** @return the index of the first character from {@code index} that isn't whitespace, or the length of {@code text} */
+    private static int skipWhitespace(CharSequence text, int index) {
+        final int LENGTH = text.length();
+        while (index < LENGTH && classOf(text.charAt(index)) == WHITESPACE) {index++;}
+        return index;
+    }
+
+    /**
+     * Finds the end of the token starting at {@code start}, which runs on past whitespace
+     * @param text the text being lexed
+     * @param start the index of the first character of the token
+     * @return the index after the last character of the token
+     */
+    private static int tokenEnd(CharSequence text, int start) {
+        final byte KIND = kindOf(text.charAt(start));
+        if (KIND == SYMBOL) return start+1;
+
+        final int LENGTH = text.length();
+        int end = start+1;
+        int next = skipWhitespace(text, end);
+        final boolean RADIX = text.charAt(start) == '0' && next < LENGTH && radix(text.charAt(next)) > 0;
+        if (RADIX) { //the digits of a radix literal can be letters
+            end = next+1;
+            next = skipWhitespace(text, end);
+        }
+
+        while (next < LENGTH && (RADIX ? Character.isLetterOrDigit(text.charAt(next)) : classOf(text.charAt(next)) == KIND)) {
+            end = next+1;
+            next = skipWhitespace(text, end);
+        }
+        return end;
+    }
+
+    /**
+     * Reads the prefix of a radix literal
+     * @param text the text being lexed
+     * @param start the index of the first character of the token
+     * @param end the index after the last character the token can have
+     * @return {@code 16}, {@code 2} or {@code 8} if the token starts with {@code 0x}, {@code 0b} or
+     * {@code 0o}, otherwise {@code 0}
+     */
+    private static int radix(CharSequence text, int start, int end) {
+        if (end - start < 2 || text.charAt(start) != '0') return 0;
+        return radix(text.charAt(start+1));
+    }
+    /** @return the radix of the letter after the {@code 0} of a radix literal, or {@code 0} if it isn't one */
+    private static int radix(char letter) {
+        switch (letter) {
+            case 'x': case 'X': return 16;
+            case 'b': case 'B': return 2;
+            case 'o': case 'O': return 8;
+        }
+        return 0;
+    }
+
+    /** @return the characters from {@code start} to {@code end} of {@code text} without their whitespace */
+    static String compact(CharSequence text, int start, int end) {
+        final StringBuilder BUILDER = new StringBuilder(end - start);
+        for (int index = start; index < end; index++) {
+            if (classOf(text.charAt(index)) != WHITESPACE) {BUILDER.append(text.charAt(index));}
+        }
+        return BUILDER.toString();
+    }
+
+    private static byte kindOf(char first) {
+        return (first == 'e') ? SYMBOL : classOf(first);
+    }
+
+    /**
+     * @return whether the {@code NUMBER} token from {@code start} to {@code end} has a digit and at
+     * most one decimal point, or is a radix literal with only digits of its radix
+     */
+    static boolean isNumber(CharSequence text, int start, int end) {
+        final int RADIX = radix(text, start, end);
+        if (RADIX > 0) {
+            for (int index = start+2; index < end; index++) {
+                if (Character.digit(text.charAt(index), RADIX) < 0) return false;
+            }
+            return end - start > 2;
+        }
+
+        int points = 0;
+        for (int index = start; index < end; index++) {
+            if (text.charAt(index) == '.') {points++;}
+        }
+        return points <= 1 && end - start > points;
+    }
+
+    /**
+     * Parses the {@code NUMBER} token from {@code start} to {@code end} straight from the
+     * characters of {@code text}. Literals of up to 18 digits are built from a {@code long}
+     * without copying any characters, as are radix literals that fit in a {@code long}.
+     * @return the value of the literal
+     * @throws NumberFormatException if the literal has more than one decimal point, or a digit
+     * that isn't valid in its radix
+     */
+    static BigDecimal number(CharSequence text, int start, int end) {
+        final int RADIX = radix(text, start, end);
+        if (RADIX > 0) {
+            final int BITS = Integer.numberOfTrailingZeros(RADIX); //the bits of each digit
+            if ((end - start - 2) * BITS < 64) {
+                long value = 0;
+                for (int index = start+2; index < end; index++) {
+                    final int DIGIT = Character.digit(text.charAt(index), RADIX);
+                    if (DIGIT < 0) {throw new NumberFormatException(String.format("Illegal digit '%c'", text.charAt(index)));}
+                    value = (value << BITS) | DIGIT;
+                }
+                return BigDecimal.valueOf(value);
+            }
+            return new BigDecimal(new BigInteger(text.subSequence(start+2, end).toString(), RADIX));
+        }
+
+        if (end - start <= 19) {
+            long unscaled = 0;
+            int scale = -1; //the number of digits after the point, or -1 before the point
+            int index = start;
+
+            for (; index < end; index++) {
+                char ch = text.charAt(index);
+                if (ch == '.') {
+                    if (scale > -1) break;
+                    scale = 0;
+                } else {
+                    unscaled = unscaled*10 + (ch - '0');
+                    if (scale > -1) {scale++;}
+                }
+            }
+            if (index == end && (end - start) - ((scale > -1) ? 1 : 0) <= 18) {return BigDecimal.valueOf(unscaled, Math.max(scale, 0));}
+        }
+
+        final char[] CHARACTERS = new char[end - start];
+        for (int index = start; index < end; index++) {CHARACTERS[index - start] = text.charAt(index);}
+        return new BigDecimal(CHARACTERS);
+    }
+
+    /**
+     * Finds the first token that ends at or after {@code index}
+     * @return the index of the token, or {@code size()} if every token ends before {@code index}
+     */
+    private int firstEndingAt(int index) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (end(middle) < index) {low = middle+1;} else {high = middle;}
+        }
+        return low;
+    }
+
+    /** Lexes all of {@code text}, replacing the whole stream */
+    void lex(CharSequence text, Listener listener) {
+        edit(text, 0, length, text.length(), listener);
+    }
+
+    /**
+     * Updates the stream after the characters from {@code start} to {@code end} of the old text
+     * were replaced with {@code length} characters
+     * @param text the text after the edit
+     * @param start the start index of the replaced range
+     * @param end the end index of the replaced range in the old text
+     * @param length the number of characters that replaced the range
+     * @param listener notified of the names the edit removes and adds, or {@code null}
+     */
+    void edit(CharSequence text, int start, int end, int length, Listener listener) {
+        final int DELTA = length - (end - start);
+        final int DAMAGE_END = start + length; //the end of the replaced range in the new text
+        final int FIRST = Math.max(firstEndingAt(start) - 1, 0); //the token before the edit could merge with the new text past whitespace
+
+        int position = (FIRST < size) ? Math.min(start(FIRST), start) : start;
+        int old = FIRST; //the next old token that has not been matched or removed
+
+        int added = 0;
+
+        final int LENGTH = text.length();
+        while (true) {
+            position = skipWhitespace(text, position);
+            if (position >= LENGTH) { //every old token that is left was re-lexed
+                old = size;
+                break;
+            }
+
+            final int TOKEN_END = tokenEnd(text, position);
+            final byte KIND = kindOf(text.charAt(position));
+            final boolean IS_SPACED = KIND != SYMBOL && hasWhitespace(text, position, TOKEN_END);
+
+            //old tokens inside the edit, or that the new tokens have passed, can no longer match
+            while (old < size && (start(old) < end || start(old) + DELTA < position)) {old++;}
+
+            if (position >= DAMAGE_END && old < size && kind(old) == KIND && start(old) + DELTA == position && end(old) + DELTA == TOKEN_END) {
+                break; //the rest of the stream is unchanged apart from its position
+            }
+
+            if (added == newKinds.length) {
+                newKinds = Arrays.copyOf(newKinds, added*2);
+                newStarts = Arrays.copyOf(newStarts, added*2);
+                newEnds = Arrays.copyOf(newEnds, added*2);
+                newNames = Arrays.copyOf(newNames, added*2);
+            }
+            newKinds[added] = (byte)(IS_SPACED ? KIND + SPACED : KIND);
+            newStarts[added] = position;
+            newEnds[added] = TOKEN_END;
+            if (KIND == NAME && KEEP_NAMES) {newNames[added] = IS_SPACED ? compact(text, position, TOKEN_END) : text.subSequence(position, TOKEN_END).toString();}
+            added++;
+
+            position = TOKEN_END;
+        }
+
+        if (listener != null) { //names are added first so a name that was only re-lexed is never seen as gone
+            for (int index = 0; index < added; index++) {
+                if (newNames[index] != null) {listener.added(newNames[index]);}
+            }
+            for (int index = FIRST; index < old; index++) {
+                if (name(index) != null) {listener.removed(name(index));}
+            }
+        }
+        splice(FIRST, old, added, LENGTH);
+        Arrays.fill(newNames, 0, added, null);
+    }
+
+    private static boolean hasWhitespace(CharSequence text, int start, int end) {
+        for (int index = start; index < end; index++) {
+            if (classOf(text.charAt(index)) == WHITESPACE) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the tokens from {@code from} to {@code to} with the new tokens. The gap is moved to
+     * {@code to} first, so the tokens after the edit are already kept from the end of the text and
+     * don't change.
+     * @param textLength the length of the text after the edit
+     */
+    private void splice(int from, int to, int added, int textLength) {
+        moveGap(to);
+        Arrays.fill(names, from, to, null);
+        size -= to - from;
+        gap = from;
+
+        if (kinds.length - size < added) { //grow the gap to fit the new tokens
+            final int CAPACITY = Math.max(size + added, kinds.length*2);
+            final byte[] KINDS = new byte[CAPACITY];
+            final int[] STARTS = new int[CAPACITY], ENDS = new int[CAPACITY];
+            final String[] NAMES = new String[CAPACITY];
+            copyAroundGap(kinds, KINDS, CAPACITY);
+            copyAroundGap(starts, STARTS, CAPACITY);
+            copyAroundGap(ends, ENDS, CAPACITY);
+            copyAroundGap(names, NAMES, CAPACITY);
+            kinds = KINDS;
+            starts = STARTS;
+            ends = ENDS;
+            names = NAMES;
+        }
+
+        System.arraycopy(newKinds, 0, kinds, gap, added);
+        System.arraycopy(newStarts, 0, starts, gap, added);
+        System.arraycopy(newEnds, 0, ends, gap, added);
+        System.arraycopy(newNames, 0, names, gap, added);
+        gap += added;
+        size += added;
+        length = textLength;
+    }
+
+    /** Copies the tokens before the gap to the start of {@code grown} and the tokens after it to its end */
+    private void copyAroundGap(Object array, Object grown, int capacity) {
+        final int TAIL = size - gap;
+        System.arraycopy(array, 0, grown, 0, gap);
+        System.arraycopy(array, kinds.length - TAIL, grown, capacity - TAIL, TAIL);
+    }
+
+    /** Moves the gap to before the token at {@code index}, changing where the offsets of the tokens it passes are kept from */
+    private void moveGap(int index) {
+        final int WIDTH = kinds.length - size;
+        if (index < gap) { //the tokens from index move after the gap
+            System.arraycopy(kinds, index, kinds, index + WIDTH, gap - index);
+            System.arraycopy(names, index, names, index + WIDTH, gap - index);
+            for (int token = gap-1; token >= index; token--) {
+                starts[token + WIDTH] = starts[token] - length;
+                ends[token + WIDTH] = ends[token] - length;
+            }
+            Arrays.fill(names, index, Math.min(gap, index + WIDTH), null);
+        } else if (index > gap) { //the tokens before index move before the gap
+            System.arraycopy(kinds, gap + WIDTH, kinds, gap, index - gap);
+            System.arraycopy(names, gap + WIDTH, names, gap, index - gap);
+            for (int token = gap; token < index; token++) {
+                starts[token] = starts[token + WIDTH] + length;
+                ends[token] = ends[token + WIDTH] + length;
+            }
+            Arrays.fill(names, Math.max(index, gap + WIDTH), index + WIDTH, null);
+        }
+        gap = index;
+    }
+}
@@ -135,7 +135,12 @@ abstract class Utility {
      * @return the greatest common factor of {@code x} and {@code y}
      */
     public static long gcf(long x, long y) {
-        return (y == 0) ? x : gcf(y, x%y);
+        while (y != 0) {
+            final long REMAINDER = x%y;
+            x = y;
+            y = REMAINDER;
+        }
+        return x;
     }
 
     /**
@@ -152,12 +157,12 @@ abstract class Utility {
      * Calculates the factorial of a number
      * @param number the number to calculate the factorial of
      * @return the factorial of {@code number}
+     * @throws ArithmeticException if {@code number} is negative, or its factorial is too large for a {@code long}
+     * @see Factorial#of(int)
      */
     public static long fact(long number) {
-        for (long n = number-1; n > 1; n--) {
-            number *= n;
-        }
-        return number;
+        if (number > 20) {throw new ArithmeticException("long overflow");} //21! is the first factorial a long can't hold
+        return Factorial.of((int)number).longValue();
     }
 
     public static double logGamma(double x) {
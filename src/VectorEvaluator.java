@@ -0,0 +1,275 @@
+import java.util.Arrays;
+
+/**
+ * Evaluates a compiled {@link Program} whose values can be vectors, such as
+ * {@code dot(<1, 2, 3>, x) / norm(x)}. A vector is written as its elements between chevrons,
+ * {@code <a, b, c>}, and variables can be given whole vectors as values. Every vector is held as
+ * a primitive {@code double[]}, and each operator runs as one tight loop over the elements,
+ * which the JIT compiles to SIMD instructions for the arithmetic operators, so a vector of
+ * thousands of elements is one opcode rather than thousands of scalar terms to parse and
+ * evaluate.
+ * <p>Operators and functions apply element by element. A scalar used with a vector is applied
+ * to every element, so {@code 2*<1, 2>} is {@code <2, 4>}, but two vectors must have the same
+ * length. The functions {@code dot}, {@code norm} and {@code sum} reduce vectors to scalars, and
+ * treat a scalar as a vector of one element. The elements of a vector literal must be scalars.
+ * <p>Scalars are kept apart from vectors, so the scalar parts of a program don't allocate, and
+ * the result of a vector operation is written over an operand that no other value refers to
+ * whenever there is one.
+ * @author Aleksandr Stinchcomb
+ * @version 1.0
+ * @see Program#evaluateDouble(double...)
+ * @see Expression#evaluateVector()
+ */
+public abstract class VectorEvaluator {
+    // -- Methods -- \\
+    /**
+     * Evaluates {@code program} using {@code double} arithmetic
+     * @param program the program to evaluate
+     * @param values the values of the variables in slot order, each a vector, or a scalar as a
+     * vector of one element
+     * @return the result of the program, which is a vector of one element if it is a scalar
+     * @throws ArithmeticException if the program divides by {@code 0}, operates on two vectors of
+     * different lengths, or has a vector as an element of a vector
+     * @throws UnknownVariableException if there are fewer {@code values} than variables
+     * @see Program#variables()
+     */
+    public static double[] evaluate(Program program, double[]... values) throws ArithmeticException {
+        if (values.length < program.VARIABLES.length) {
+            throw new UnknownVariableException(String.format("Variable '%s' was not given a value", program.VARIABLES[values.length]));
+        }
+
+        final double[] SCALARS = new double[program.DEPTH];
+        final double[][] VECTORS = new double[program.DEPTH][]; //The value of each vector on the stack, or null for a scalar
+        final boolean[] OWNED = new boolean[program.DEPTH]; //Whether each vector was made by this evaluation, so it can be written over
+        int top = -1;
+
+        for (int index = 0; index < program.CODE.length; index++) {
+            final int OPERAND = program.OPERANDS[index];
+
+            switch (program.CODE[index]) {
+                case Program.NUMBER:
+                    SCALARS[++top] = program.DOUBLE_CONSTANTS[OPERAND];
+                    VECTORS[top] = null;
+                    break;
+                case Program.VARIABLE:
+                    final double[] VALUE = values[OPERAND];
+                    top++;
+                    if (VALUE.length == 1) {
+                        SCALARS[top] = VALUE[0];
+                        VECTORS[top] = null;
+                    } else {
+                        VECTORS[top] = VALUE;
+                        OWNED[top] = false;
+                    }
+                    break;
+                case Program.NEGATE:
+                    if (VECTORS[top] == null) {
+                        SCALARS[top] = -SCALARS[top];
+                    } else {
+                        final double[] RESULT = result(VECTORS, OWNED, top, -1, VECTORS[top].length);
+                        negate(RESULT, VECTORS[top]);
+                        VECTORS[top] = RESULT;
+                        OWNED[top] = true;
+                    }
+                    break;
+                case Program.OPERATOR:
+                    top--;
+                    if (VECTORS[top] == null && VECTORS[top+1] == null) {
+                        SCALARS[top] = Expression.operation(SCALARS[top], SCALARS[top+1], (char)OPERAND);
+                    } else {
+                        final double[] RESULT = result(VECTORS, OWNED, top, top+1, length(VECTORS, top, 2));
+                        operation(RESULT, VECTORS[top], SCALARS[top], VECTORS[top+1], SCALARS[top+1], (char)OPERAND);
+                        VECTORS[top] = RESULT;
+                        OWNED[top] = true;
+                    }
+                    break;
+                case Program.FUNCTION:
+                    final int ARITY = Functions.arity(OPERAND);
+                    top -= ARITY-1;
+                    function(OPERAND, SCALARS, VECTORS, OWNED, top, ARITY);
+                    break;
+                case Program.VECTOR:
+                    top -= OPERAND-1;
+                    final double[] VECTOR = new double[OPERAND];
+                    for (int element = 0; element < OPERAND; element++) {
+                        if (VECTORS[top + element] != null) {throw new ArithmeticException("Vector elements must be scalars");}
+                        VECTOR[element] = SCALARS[top + element];
+                    }
+                    VECTORS[top] = VECTOR;
+                    OWNED[top] = true;
+                    break;
+            }
+        }
+
+        if (VECTORS[0] == null) {return new double[] {SCALARS[0]};}
+        return OWNED[0] ? VECTORS[0] : VECTORS[0].clone();
+    }
+
+    /**
+     * Finds the length of the result of an operation on {@code count} values from {@code start}
+     * @return the length of the vectors among the values, or {@code -1} if they are all scalars
+     * @throws ArithmeticException if two of the vectors have different lengths
+     */
+    private static int length(double[][] vectors, int start, int count) throws ArithmeticException {
+        int length = -1;
+        for (int index = start; index < start + count; index++) {
+            if (vectors[index] == null) {continue;}
+            if (length > -1 && vectors[index].length != length) {
+                throw new ArithmeticException(String.format("Vector lengths %d and %d don't match", length, vectors[index].length));
+            }
+            length = vectors[index].length;
+        }
+        return length;
+    }
+
+    /**
+     * Finds an array to write the result of an operation into, which is an operand this
+     * evaluation owns if there is one, or a new array
+     * @param first the index of the first operand on the stack
+     * @param second the index of the second operand on the stack, or {@code -1} if there isn't one
+     */
+    private static double[] result(double[][] vectors, boolean[] owned, int first, int second, int length) {
+        if (vectors[first] != null && owned[first]) return vectors[first];
+        if (second > -1 && vectors[second] != null && owned[second]) return vectors[second];
+        return new double[length];
+    }
+
+    private static void negate(double[] result, double[] vector) {
+        for (int element = 0; element < result.length; element++) {result[element] = -vector[element];}
+    }
+
+    private static void checkDivisor(double[] divisors, double divisor) {
+        if (divisors == null) {
+            if (divisor == 0) {throw new ArithmeticException("Divide by 0");}
+            return;
+        }
+        for (double element : divisors) {
+            if (element == 0) {throw new ArithmeticException("Divide by 0");}
+        }
+    }
+
+    /**
+     * Applies {@code operator} to every element, where a {@code null} vector is the scalar beside it
+     * @param result where to put the results, which may be one of the vectors
+     */
+    private static void operation(double[] result, double[] first, double firstScalar, double[] second, double secondScalar, char operator) {
+        final int LENGTH = result.length;
+        switch (operator) {
+            case '+':
+                if (first == null) {for (int element = 0; element < LENGTH; element++) {result[element] = firstScalar + second[element];}}
+                else if (second == null) {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] + secondScalar;}}
+                else {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] + second[element];}}
+                return;
+            case '-':
+                if (first == null) {for (int element = 0; element < LENGTH; element++) {result[element] = firstScalar - second[element];}}
+                else if (second == null) {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] - secondScalar;}}
+                else {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] - second[element];}}
+                return;
+            case '*':
+                if (first == null) {for (int element = 0; element < LENGTH; element++) {result[element] = firstScalar * second[element];}}
+                else if (second == null) {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] * secondScalar;}}
+                else {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] * second[element];}}
+                return;
+            case '/':
+                checkDivisor(second, secondScalar);
+                if (first == null) {for (int element = 0; element < LENGTH; element++) {result[element] = firstScalar / second[element];}}
+                else if (second == null) {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] / secondScalar;}}
+                else {for (int element = 0; element < LENGTH; element++) {result[element] = first[element] / second[element];}}
+                return;
+        }
+        for (int element = 0; element < LENGTH; element++) {
+            final double FIRST = (first == null) ? firstScalar : first[element];
+            final double SECOND = (second == null) ? secondScalar : second[element];
+            result[element] = Expression.operation(FIRST, SECOND, operator);
+        }
+    }
+
+    /**
+     * Applies a function to the {@code arity} values from {@code start} on the stack, leaving
+     * the result at {@code start}
+     */
+    private static void function(int id, double[] scalars, double[][] vectors, boolean[] owned, int start, int arity) throws ArithmeticException {
+        final int LENGTH = length(vectors, start, arity);
+        if (LENGTH == -1) { //the scalar form of every function, including the vector functions
+            scalars[start] = (arity == 1) ? Functions.apply(id, scalars[start]) : Functions.apply(id, Arrays.copyOfRange(scalars, start, start+arity));
+            return;
+        }
+
+        switch (id) {
+            case Functions.SUM:
+                scalars[start] = sum(vectors[start]);
+                vectors[start] = null;
+                return;
+            case Functions.NORM:
+                scalars[start] = norm(vectors[start]);
+                vectors[start] = null;
+                return;
+            case Functions.DOT:
+                scalars[start] = dot(vectors[start], scalars[start], vectors[start+1], scalars[start+1]);
+                vectors[start] = null;
+                return;
+        }
+
+        final double[] RESULT = result(vectors, owned, start, (arity > 1) ? start+1 : -1, LENGTH);
+        if (arity == 1) {
+            final double[] VECTOR = vectors[start];
+            for (int element = 0; element < LENGTH; element++) {RESULT[element] = Functions.apply(id, VECTOR[element]);}
+        } else {
+            final double[][] OPERANDS = Arrays.copyOfRange(vectors, start, start+arity); //RESULT may be one of them
+            final double[] ARGUMENTS = new double[arity];
+            for (int element = 0; element < LENGTH; element++) {
+                for (int argument = 0; argument < arity; argument++) {
+                    ARGUMENTS[argument] = (OPERANDS[argument] == null) ? scalars[start + argument] : OPERANDS[argument][element];
+                }
+                RESULT[element] = Functions.apply(id, ARGUMENTS.clone());
+            }
+        }
+        vectors[start] = RESULT;
+        owned[start] = true;
+    }
+
+    /** @return the sum of the elements of {@code vector}, added in four independent sums so the additions can overlap */
+    private static double sum(double[] vector) {
+        double first = 0, second = 0, third = 0, fourth = 0;
+        int element = 0;
+        for (; element + 3 < vector.length; element += 4) {
+            first += vector[element];
+            second += vector[element+1];
+            third += vector[element+2];
+            fourth += vector[element+3];
+        }
+        for (; element < vector.length; element++) {first += vector[element];}
+        return (first + second) + (third + fourth);
+    }
+
+    /** @return the Euclidean length of {@code vector}, scaled by its largest element so the squares can't overflow */
+    private static double norm(double[] vector) {
+        double largest = 0;
+        for (double element : vector) {largest = Math.max(largest, Math.abs(element));}
+        if (largest == 0 || Double.isInfinite(largest)) return largest;
+
+        double sum = 0;
+        for (double element : vector) {
+            final double SCALED = element / largest;
+            sum += SCALED * SCALED;
+        }
+        return largest * Math.sqrt(sum);
+    }
+
+    /** @return the dot product of two values, where a {@code null} vector is the scalar beside it */
+    private static double dot(double[] first, double firstScalar, double[] second, double secondScalar) {
+        if (first == null) return firstScalar * sum(second);
+        if (second == null) return sum(first) * secondScalar;
+
+        double firstSum = 0, secondSum = 0, thirdSum = 0, fourthSum = 0; //four independent sums, as in sum(double[])
+        int element = 0;
+        for (; element + 3 < first.length; element += 4) {
+            firstSum += first[element] * second[element];
+            secondSum += first[element+1] * second[element+1];
+            thirdSum += first[element+2] * second[element+2];
+            fourthSum += first[element+3] * second[element+3];
+        }
+        for (; element < first.length; element++) {firstSum += first[element] * second[element];}
+        return (firstSum + secondSum) + (thirdSum + fourthSum);
+    }
+}